@@ -22,7 +22,8 @@
     [[org.clojure/test.check "1.1.1"]]}}
 
   :monolith
-  {:project-dirs ["sparkplug-core"
+  {:project-dirs ["sparkplug-bench"
+                  "sparkplug-core"
                   "sparkplug-repl"]
    :inherit [:deploy-branches
              :pedantic?]})
@@ -0,0 +1,53 @@
+(defproject amperity/sparkplug-bench "1.1.0"
+  :description "JMH benchmarks for sparkplug serialization and function wrappers"
+  :url "https://github.com/amperity/sparkplug"
+  :scm {:dir ".."}
+  :license {:name "Apache License 2.0"
+            :url "http://www.apache.org/licenses/LICENSE-2.0"}
+
+  :monolith/inherit true
+  :deploy-repositories {"releases" {:url "https://repo.clojars.org"}}
+
+  :plugins
+  [[lein-jmh "0.3.0"]]
+
+  :dependencies
+  [[org.clojure/clojure "1.12.0"]
+   [amperity/sparkplug-core "1.1.0"]
+   [jmh-clojure "0.4.1"]]
+
+  :aot [sparkplug.bench.functions
+        sparkplug.bench.spark]
+
+  :aliases
+  {"bench" ["jmh" "{:profilers [\"gc\"], :format :table, :status true}"]
+   "bench-baseline" ["jmh" "{:profilers [\"gc\"], :status true, :output \"baseline/baseline.edn\"}"]
+   "bench-current" ["jmh" "{:profilers [\"gc\"], :status true, :output \"baseline/current.edn\"}"]
+   "bench-compare" ["run" "-m" "sparkplug.bench.compare"]}
+
+  :profiles
+  {:default
+   [:base :system :user :provided :spark-3.5 :dev]
+
+   :dev
+   {:dependencies
+    [[org.slf4j/slf4j-api "2.0.16"]
+     [org.slf4j/slf4j-simple "2.0.16"]]
+    :jvm-opts ["-Xmx2g"
+               "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn"
+               "-Dorg.slf4j.simpleLogger.log.org.apache=warn"]}
+
+   :spark-3.1
+   ^{:pom-scope :provided}
+   {:dependencies
+    [[org.apache.spark/spark-core_2.12 "3.1.3"]]}
+
+   :spark-3.5
+   ^{:pom-scope :provided}
+   {:dependencies
+    [[org.apache.spark/spark-core_2.12 "3.5.1"
+      :exclusions [org.apache.logging.log4j/log4j-slf4j2-impl]]
+
+     ;; Conflict resolution
+     [com.fasterxml.jackson.core/jackson-core "2.15.2"]
+     [com.google.code.findbugs/jsr305 "3.0.2"]]}})
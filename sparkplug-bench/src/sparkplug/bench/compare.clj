@@ -0,0 +1,92 @@
+(ns sparkplug.bench.compare
+  "Compare two saved JMH result files, printing the change in score and
+  allocation for each benchmark."
+  (:require
+    [clojure.edn :as edn]
+    [clojure.java.io :as io]
+    [clojure.string :as str]))
+
+
+(defn- load-results
+  "Read a results file written with the lein-jmh `:output` option, returning
+  a map from benchmark name and parameters to result."
+  [path]
+  (let [results (edn/read-string (slurp (io/file path)))]
+    (into {}
+          (map (fn [result]
+                 [[(or (:name result) (:fn result)) (:params result)]
+                  result]))
+          results)))
+
+
+(defn- score
+  "Return the numeric score of a result or secondary result, if any."
+  [result]
+  (let [s (:score result)]
+    (if (sequential? s)
+      (first s)
+      s)))
+
+
+(defn- allocation
+  "Return the normalized bytes allocated per operation reported by the `gc`
+  profiler, if any."
+  [result]
+  (some (fn [[k v]]
+          (when (str/ends-with? (str k) "gc.alloc.rate.norm")
+            (score v)))
+        (:secondary result)))
+
+
+(defn- ratio
+  "Format the change from `before` to `after` as a percentage."
+  [before after]
+  (if (and before after (not (zero? before)))
+    (format "%+.1f%%" (* 100.0 (/ (- after before) before)))
+    "-"))
+
+
+(defn- fmt
+  [x]
+  (if x
+    (format "%.2f" (double x))
+    "-"))
+
+
+(defn- label
+  [[bench-name params]]
+  (str (if (keyword? bench-name)
+         (subs (str bench-name) 1)
+         bench-name)
+       (when (seq params)
+         (str " " (pr-str params)))))
+
+
+(defn compare-results
+  "Print a table comparing the results in the `current` file to those in the
+  `baseline` file."
+  [baseline current]
+  (let [before (load-results baseline)
+        after (load-results current)
+        ids (sort-by label (distinct (concat (keys before) (keys after))))]
+    (printf "%-48s %14s %14s %9s %14s %14s %9s\n"
+            "benchmark" "base score" "score" "change"
+            "base B/op" "B/op" "change")
+    (doseq [id ids]
+      (let [b (get before id)
+            a (get after id)]
+        (printf "%-48s %14s %14s %9s %14s %14s %9s\n"
+                (label id)
+                (fmt (score b)) (fmt (score a)) (ratio (score b) (score a))
+                (fmt (allocation b)) (fmt (allocation a))
+                (ratio (allocation b) (allocation a)))))
+    (flush)))
+
+
+(defn -main
+  "Compare a current results file against a baseline. Defaults to the files
+  written by the `bench-baseline` and `bench-current` aliases."
+  [& args]
+  (let [[baseline current] args]
+    (compare-results (or baseline "baseline/baseline.edn")
+                     (or current "baseline/current.edn"))))
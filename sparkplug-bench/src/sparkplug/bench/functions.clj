@@ -0,0 +1,118 @@
+(ns sparkplug.bench.functions
+  "Benchmarks for the serializable function wrappers. This namespace is AOT
+  compiled so that the closures it wraps resolve the same way they would in a
+  job."
+  (:require
+    [sparkplug.function :as f]
+    [sparkplug.scala :as scala])
+  (:import
+    (java.io
+      ByteArrayInputStream
+      ByteArrayOutputStream
+      ObjectInputStream
+      ObjectOutputStream)
+    sparkplug.function.PairFn
+    scala.Tuple2))
+
+
+;; ## Closure Serialization
+
+(defn- lookup-fn
+  "Build a function closing over a lookup table of the given size."
+  [size]
+  (let [table (into {}
+                    (map (fn [i] [(keyword (str "k" i)) {:id i, :name (str "item-" i)}]))
+                    (range size))]
+    (fn lookup
+      [k]
+      (get table k))))
+
+
+(defn- serialize
+  "Serialize a value with Java serialization."
+  ^bytes
+  [value]
+  (let [bytes (ByteArrayOutputStream.)]
+    (with-open [out (ObjectOutputStream. bytes)]
+      (.writeObject out value))
+    (.toByteArray bytes)))
+
+
+(defn- deserialize
+  "Deserialize a value with Java serialization."
+  [^bytes data]
+  (with-open [in (ObjectInputStream. (ByteArrayInputStream. data))]
+    (.readObject in)))
+
+
+(defn closure
+  "Create benchmark state holding a raw closure over a table with `size`
+  entries, the wrapped function, and its serialized bytes."
+  [size]
+  (let [raw (lookup-fn (Long/parseLong (str size)))
+        wrapped (f/fn1 raw)]
+    {:raw raw
+     :wrapped wrapped
+     :serialized (serialize wrapped)}))
+
+
+(defn wrap-fn
+  "Wrap the raw closure, walking it for namespace references."
+  [{:keys [raw]}]
+  (f/fn1 raw))
+
+
+(defn serialize-fn
+  "Serialize the wrapped function."
+  ^bytes
+  [{:keys [wrapped]}]
+  (serialize wrapped))
+
+
+(defn deserialize-fn
+  "Deserialize the wrapped function."
+  [{:keys [serialized]}]
+  (deserialize serialized))
+
+
+;; ## Pair Coercion
+
+(defn pairs
+  "Create benchmark state holding each shape of pair result a function can
+  return, and a nested tuple like those produced by joins."
+  []
+  {:f identity
+   :vector [:key {:a 1}]
+   :entry (first {:key {:a 1}})
+   :tuple (Tuple2. :key {:a 1})
+   :nested (Tuple2. :key (Tuple2. {:a 1} (Tuple2. "b" [1 2 3])))})
+
+
+(defn coerce-vector
+  "Coerce a vector result into a pair."
+  [{:keys [f vector]}]
+  (PairFn/coercePair f vector))
+
+
+(defn coerce-entry
+  "Coerce a map entry result into a pair."
+  [{:keys [f entry]}]
+  (PairFn/coercePair f entry))
+
+
+(defn coerce-tuple
+  "Pass a tuple result through pair coercion."
+  [{:keys [f tuple]}]
+  (PairFn/coercePair f tuple))
+
+
+(defn from-tuple
+  "Recursively convert nested tuples to vectors."
+  [{:keys [nested]}]
+  (scala/from-tuple nested))
+
+
+(defn from-tuples
+  "Convert nested tuples to vectors without walking other values."
+  [{:keys [nested]}]
+  (scala/from-tuples nested))
@@ -0,0 +1,55 @@
+(ns sparkplug.bench.kryo
+  "Benchmarks for Kryo round-trips of representative Clojure data."
+  (:require
+    [sparkplug.kryo :as kryo])
+  (:import
+    com.esotericsoftware.kryo.Kryo))
+
+
+(def samples
+  "Map of sample names to values to serialize."
+  (let [record (into {}
+                     (map (fn [i] [(keyword (str "field-" i)) i]))
+                     (range 30))]
+    {"nested-map"
+     {:user {:id 123, :tags #{:x :y :z}, :scores [1.5 2.5 3.5]}
+      :events (mapv #(hash-map :ts %, :kind :click, :meta {:page (str "/p/" %)})
+                    (range 50))}
+
+     "keyword-records"
+     (mapv #(assoc record :id %, :kind :event, :source :web) (range 100))
+
+     "large-vector"
+     (vec (range 100000))}))
+
+
+(defn codec
+  "Create benchmark state for a sample, holding a configured Kryo instance,
+  the sample value, and its encoded bytes."
+  [sample]
+  (let [value (or (get samples sample)
+                  (throw (IllegalArgumentException.
+                           (str "Unknown sample: " (pr-str sample)))))
+        kryo (kryo/initialize)]
+    {:kryo kryo
+     :value value
+     :encoded (kryo/encode kryo value)}))
+
+
+(defn encode
+  "Serialize the sample value."
+  ^bytes
+  [{:keys [^Kryo kryo value]}]
+  (kryo/encode kryo value))
+
+
+(defn decode
+  "Deserialize the encoded sample."
+  [{:keys [^Kryo kryo ^bytes encoded]}]
+  (kryo/decode kryo encoded))
+
+
+(defn round-trip
+  "Serialize and then deserialize the sample value."
+  [{:keys [^Kryo kryo value]}]
+  (kryo/decode kryo (kryo/encode kryo value)))
@@ -0,0 +1,64 @@
+(ns sparkplug.bench.partition
+  "Benchmarks for partitioning keys with `FnHashPartitioner`."
+  (:require
+    [sparkplug.function :as f])
+  (:import
+    sparkplug.partition.FnHashPartitioner))
+
+
+(defn partitioner
+  "Create benchmark state holding a partitioner over 200 partitions with an
+  identity key function, along with keyword, string, and composite keys to
+  partition."
+  []
+  {:partitioner (FnHashPartitioner. 200 (f/fn1 identity))
+   :keywords (object-array (map #(keyword "key" (str %)) (range 4096)))
+   :strings (object-array (map #(str "key-" %) (range 4096)))
+   :composite (object-array (map #(vector (str "tenant-" (mod % 17)) %) (range 4096)))})
+
+
+(defn- partition-all-keys
+  "Compute the partition of every key in the array, returning a checksum of
+  the results."
+  ^long
+  [^FnHashPartitioner partitioner ^objects ks]
+  (let [n (alength ks)]
+    (loop [i 0
+           acc 0]
+      (if (< i n)
+        (recur (inc i) (+ acc (.getPartition partitioner (aget ks i))))
+        acc))))
+
+
+(defn keyword-keys
+  "Partition 4096 distinct keyword keys."
+  ^long
+  [{:keys [partitioner keywords]}]
+  (partition-all-keys partitioner keywords))
+
+
+(defn string-keys
+  "Partition 4096 distinct string keys."
+  ^long
+  [{:keys [partitioner strings]}]
+  (partition-all-keys partitioner strings))
+
+
+(defn composite-keys
+  "Partition 4096 distinct vector keys."
+  ^long
+  [{:keys [partitioner composite]}]
+  (partition-all-keys partitioner composite))
+
+
+(defn repeated-key
+  "Partition the same key instance repeatedly, as when consecutive records
+  share a key."
+  ^long
+  [{:keys [^FnHashPartitioner partitioner ^objects composite]}]
+  (let [k (aget composite 0)]
+    (loop [i 0
+           acc 0]
+      (if (< i 4096)
+        (recur (inc i) (+ acc (.getPartition partitioner k)))
+        acc))))
@@ -0,0 +1,80 @@
+(ns sparkplug.bench.spark
+  "End-to-end benchmarks of shuffle operations in a local Spark context. This
+  namespace is AOT compiled so the functions it ships to executors can be
+  loaded by class name."
+  (:require
+    [sparkplug.config :as conf]
+    [sparkplug.context :as context]
+    [sparkplug.core :as spark]
+    [sparkplug.rdd :as rdd])
+  (:import
+    org.apache.spark.api.java.JavaSparkContext))
+
+
+(def ^:private num-partitions
+  "Number of partitions to generate data and shuffle into."
+  8)
+
+
+(defn- record-value
+  "Build a representative record value for the `i`th input."
+  [i]
+  {:id i
+   :kind (if (even? i) :click :view)
+   :amount (double (mod i 100))})
+
+
+(defn- merge-values
+  "Combine two record values for the same key."
+  [a b]
+  (update a :amount + (:amount b)))
+
+
+(defn context
+  "Create benchmark state holding a local Spark context using the sparkplug
+  Kryo registrator, along with two cached pair RDDs of `records` records over
+  1000 keys."
+  [records]
+  (let [n (Long/parseLong (str records))
+        sc (context/spark-context
+             (-> (conf/spark-conf)
+                 (conf/master "local[4]")
+                 (conf/app-name "sparkplug-bench")
+                 (conf/set-param "spark.ui.enabled" "false")
+                 (conf/set-param "spark.serializer" "org.apache.spark.serializer.KryoSerializer")
+                 (conf/set-param "spark.kryo.registrator" "sparkplug.kryo.ClassPathRegistrator")))
+        left (->> (range n)
+                  (map (fn [i] [(str "key-" (mod i 1000)) (record-value i)]))
+                  (rdd/parallelize-pairs sc num-partitions)
+                  (rdd/cache!))
+        right (->> (range 1000)
+                   (map (fn [i] [(str "key-" i) {:name (str "name-" i)}]))
+                   (rdd/parallelize-pairs sc num-partitions)
+                   (rdd/cache!))]
+    ;; Materialize the cached inputs so benchmarks only measure the shuffle.
+    (spark/count left)
+    (spark/count right)
+    {:context sc
+     :left left
+     :right right}))
+
+
+(defn stop!
+  "Stop the Spark context in the benchmark state."
+  [{:keys [context]}]
+  (context/stop! ^JavaSparkContext context))
+
+
+(defn reduce-by-key
+  "Reduce the records by key and count the results."
+  [{:keys [left]}]
+  (->> left
+       (spark/reduce-by-key merge-values)
+       (spark/count)))
+
+
+(defn join
+  "Join the records against the smaller RDD and count the results."
+  [{:keys [left right]}]
+  (->> (spark/join left right)
+       (spark/count)))
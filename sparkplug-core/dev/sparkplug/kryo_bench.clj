@@ -0,0 +1,61 @@
+(ns sparkplug.kryo-bench
+  "Simple timing harness for Kryo serialization of representative Clojure
+  data. Run `(run-all)` from a REPL to print per-operation encode and decode
+  times along with the encoded sizes."
+  (:require
+    [sparkplug.kryo :as kryo])
+  (:import
+    com.esotericsoftware.kryo.Kryo))
+
+
+(def sample-data
+  "Map of sample names to representative values."
+  (let [record (into {}
+                     (map (fn [i] [(keyword (str "field-" i)) i]))
+                     (range 30))]
+    {:small-map {:a 1, :b "two", :c :three}
+     :record record
+     :records (vec (repeat 10 record))
+     :distinct-records (mapv #(assoc record :id %) (range 10))
+     :nested {:user {:id 123, :tags #{:x :y :z}, :scores [1.5 2.5 3.5]}
+              :events (mapv #(hash-map :ts % :kind :click) (range 50))}
+     :long-vector (vec (range 1000))
+     :string-vector (mapv str (range 1000))
+     :set (set (range 1000))
+     :list (apply list (range 1000))}))
+
+
+(defn- time-ns
+  "Run `f` `n` times after warming up, returning the mean nanoseconds per
+  call."
+  [n f]
+  (dotimes [_ (quot n 2)]
+    (f))
+  (let [start (System/nanoTime)]
+    (dotimes [_ n]
+      (f))
+    (/ (- (System/nanoTime) start) (double n))))
+
+
+(defn bench-value
+  "Measure encode and decode times for a single value. Returns a map with
+  `:bytes`, `:encode-ns`, and `:decode-ns`."
+  [^Kryo kryo value n]
+  (let [encoded (kryo/encode kryo value)]
+    {:bytes (alength encoded)
+     :encode-ns (time-ns n #(kryo/encode kryo value))
+     :decode-ns (time-ns n #(kryo/decode kryo encoded))}))
+
+
+(defn run-all
+  "Benchmark all of the sample data, printing a table of results."
+  ([]
+   (run-all 2000))
+  ([n]
+   (let [kryo (kryo/initialize)]
+     (printf "%-14s %10s %12s %12s\n" "sample" "bytes" "encode-ns" "decode-ns")
+     (doseq [[sample-name value] (sort-by key sample-data)]
+       (let [{:keys [bytes encode-ns decode-ns]} (bench-value kryo value n)]
+         (printf "%-14s %10d %12.0f %12.0f\n"
+                 (name sample-name) bytes encode-ns decode-ns)))
+     (flush))))
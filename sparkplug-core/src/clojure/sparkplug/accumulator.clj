@@ -6,6 +6,12 @@
     [sparkplug.scala :as scala])
   (:import
     org.apache.spark.api.java.JavaSparkContext
+    (sparkplug.accumulator
+      CountMinSketch
+      HyperLogLog
+      SketchAccumulator
+      TDigest
+      TopK)
     (org.apache.spark.util
       AccumulatorV2
       DoubleAccumulator
@@ -41,6 +47,83 @@
    (.collectionAccumulator (.sc spark-context) acc-name)))
 
 
+(defn- register-sketch
+  "Register a new sketch accumulator starting from the given empty sketch."
+  [^JavaSparkContext spark-context acc-name sketch]
+  (let [acc (SketchAccumulator. sketch)]
+    (if acc-name
+      (.register (.sc spark-context) acc (str acc-name))
+      (.register (.sc spark-context) acc))
+    acc))
+
+
+(defn distinct-count-accumulator
+  "Create and register an accumulator which estimates the number of distinct
+  values added to it with a HyperLogLog sketch. Options may include a
+  `:precision` between 4 and 18 (default 14); the relative error of the
+  estimate is about `1.04 / sqrt(2^precision)`. Read the estimate with
+  `cardinality`.
+
+  Numbers, strings, keywords, symbols, and UUIDs are hashed to 64 bits. Other
+  values, such as collections, are hashed from their 32-bit `hash`, so counts
+  of tens of millions of distinct collections will be underestimated; map
+  them to strings or numbers first if that matters."
+  ([spark-context]
+   (distinct-count-accumulator spark-context nil nil))
+  ([spark-context acc-name]
+   (distinct-count-accumulator spark-context acc-name nil))
+  ([spark-context acc-name opts]
+   (register-sketch
+     spark-context acc-name
+     (HyperLogLog. (int (:precision opts HyperLogLog/DEFAULT_PRECISION))))))
+
+
+(defn quantile-accumulator
+  "Create and register an accumulator which estimates quantiles of the numbers
+  added to it with a t-digest sketch. Options may include a `:compression`
+  (default 100); larger values are more accurate but use more memory. Read
+  estimates with `quantile`."
+  ([spark-context]
+   (quantile-accumulator spark-context nil nil))
+  ([spark-context acc-name]
+   (quantile-accumulator spark-context acc-name nil))
+  ([spark-context acc-name opts]
+   (register-sketch
+     spark-context acc-name
+     (TDigest. (double (:compression opts TDigest/DEFAULT_COMPRESSION))))))
+
+
+(defn frequency-accumulator
+  "Create and register an accumulator which estimates how many times each value
+  was added to it with a count-min sketch. Options may include the `:width`
+  (default 2048) and `:depth` (default 5) of the sketch. Read estimates with
+  `frequency`."
+  ([spark-context]
+   (frequency-accumulator spark-context nil nil))
+  ([spark-context acc-name]
+   (frequency-accumulator spark-context acc-name nil))
+  ([spark-context acc-name opts]
+   (register-sketch
+     spark-context acc-name
+     (CountMinSketch. (int (:width opts CountMinSketch/DEFAULT_WIDTH))
+                      (int (:depth opts CountMinSketch/DEFAULT_DEPTH))))))
+
+
+(defn top-k-accumulator
+  "Create and register an accumulator which tracks the most frequent values
+  added to it with a space-saving sketch. Options may include the `:capacity`
+  (default 100) of values to track; values occurring more often than
+  `1/capacity` of the time are always found. Read the results with `top-k`."
+  ([spark-context]
+   (top-k-accumulator spark-context nil nil))
+  ([spark-context acc-name]
+   (top-k-accumulator spark-context acc-name nil))
+  ([spark-context acc-name opts]
+   (register-sketch
+     spark-context acc-name
+     (TopK. (int (:capacity opts TopK/DEFAULT_CAPACITY))))))
+
+
 ;; ## Accumulator Methods
 
 (defn name
@@ -129,3 +212,34 @@
     (throw (IllegalArgumentException.
              (str "Cannot call avg on accumulator type "
                   (class acc))))))
+
+
+;; ## Sketch Accumulators
+
+(defn cardinality
+  "Return the estimated number of distinct values added to a
+  `distinct-count-accumulator`."
+  [^SketchAccumulator acc]
+  (.estimate ^HyperLogLog (.value acc)))
+
+
+(defn quantile
+  "Return the estimated value at quantile `q`, between 0 and 1, of the numbers
+  added to a `quantile-accumulator`. Returns NaN if no numbers were added."
+  [^SketchAccumulator acc q]
+  (.quantile ^TDigest (.value acc) (double q)))
+
+
+(defn frequency
+  "Return the estimated number of times `x` was added to a
+  `frequency-accumulator`. The estimate is never less than the true count."
+  [^SketchAccumulator acc x]
+  (.estimate ^CountMinSketch (.value acc) x))
+
+
+(defn top-k
+  "Return up to `k` of the most frequent values added to a `top-k-accumulator`
+  as a vector of `[value count]` pairs, in descending order of count. Counts
+  may be overestimated for values seen when the sketch was full."
+  [^SketchAccumulator acc k]
+  (.top ^TopK (.value acc) (int k)))
@@ -5,23 +5,38 @@
   just like Clojure collection functions. This lets you compose them using the
   thread-last macro (`->>`), making it simple to migrate existing Clojure
   code."
-  (:refer-clojure :exclude [count distinct filter first group-by into keys map
-                            mapcat max min reduce sort-by take vals])
+  (:refer-clojure :exclude [count distinct eduction filter first group-by into
+                            keys map mapcat max min reduce sort-by take vals])
   (:require
     [clojure.core :as c]
     [sparkplug.function :as f]
     [sparkplug.rdd :as rdd]
     [sparkplug.scala :as scala])
   (:import
-    org.apache.spark.Partitioner
+    (org.apache.spark
+      HashPartitioner
+      Partitioner)
     (org.apache.spark.api.java
+      JavaDoubleRDD
       JavaPairRDD
       JavaRDD
       JavaRDDLike
       JavaSparkContext)
+    java.io.File
     org.apache.spark.broadcast.Broadcast
-    sparkplug.broadcast.DerefBroadcast
-    sparkplug.core.UnionHelper))
+    (sparkplug.broadcast
+      DerefBroadcast
+      MappedBroadcast
+      MappedTable)
+    (sparkplug.core
+      BroadcastJoin
+      GroupReducer
+      KeyReducer
+      PartitionStream
+      UnionHelper)
+    (sparkplug.partition
+      FnRangePartitioner
+      SkewPartitioner)))
 
 
 ;; ## Broadcast Variables
@@ -39,6 +54,35 @@
     (DerefBroadcast. broadcast (class value))))
 
 
+(defn broadcast-table
+  "Broadcast a read-only lookup table to the cluster as a memory-mapped file,
+  returning a reference for reading it in distributed functions. The keys and
+  values of the map `data` are encoded with the Kryo registries into a file
+  indexed by key hash, which is distributed with the Spark context's files.
+
+  Dereferencing the broadcast maps the file the first time in each JVM, and
+  all tasks share the mapping. The table implements `ILookup`, so existing
+  `(get @table k)` code works, but each lookup decodes only the matching
+  entry and the data is never loaded onto the heap. Lookups may also be made
+  on the reference itself. Tables are read-only and cannot be iterated.
+
+  Options may include:
+
+  - `:dir`
+    Directory to write the table file in. Defaults to the system temporary
+    directory."
+  (^MappedBroadcast
+   [spark-context data]
+   (broadcast-table spark-context nil data))
+  (^MappedBroadcast
+   [^JavaSparkContext spark-context opts data]
+   (let [file (File/createTempFile "sparkplug-table-" ".bin" (some-> (:dir opts) ^String (str) (File.)))]
+     (.deleteOnExit file)
+     (MappedTable/write file (if (instance? java.util.Map data) data (c/into {} data)))
+     (.addFile spark-context (.getPath file))
+     (MappedBroadcast. (.getName file) (.getPath file)))))
+
+
 ;; ## RDD Transformations
 
 ;; Type hints are omitted because `filter` is not included in JavaRDDLike.
@@ -61,6 +105,20 @@
     (rdd/fn-name f)))
 
 
+(defn map->doubles
+  "Map the function `f` over each element of `rdd` to produce a number.
+  Returns a new double RDD of the results, which supports numeric actions such
+  as `sum` and `stats`.
+
+  If `f` has a primitive `^double` return hint, its results are passed to
+  Spark without boxing."
+  ^JavaDoubleRDD
+  [f ^JavaRDDLike rdd]
+  (rdd/set-callsite-name
+    (.mapToDouble rdd (f/double-fn f))
+    (rdd/fn-name f)))
+
+
 (defn mapcat
   "Map the function `f` over each element in `rdd` to produce a sequence of
   results. Returns an RDD representing the concatenation of all element
@@ -76,7 +134,11 @@
   "Map the function `f` over each partition in `rdd`, producing a sequence of
   results. Returns an RDD representing the concatenation of all the partition
   results. The function will be called with an iterator of the elements of each
-  partition."
+  partition.
+
+  The function may return any collection, iterator, lazy sequence, eduction,
+  or other reducible value. Results are passed to Spark as they are produced,
+  so partitions can be processed without holding all their results in memory."
   (^JavaRDDLike
    [f ^JavaRDDLike rdd]
    (map-partitions f false rdd))
@@ -90,6 +152,31 @@
      (rdd/fn-name f))))
 
 
+(defn eduction
+  "Apply the transducer `xform` to each partition in `rdd`, in a single pass
+  over the partition's elements. Returns an RDD representing the concatenation
+  of all the partition results.
+
+  This lets a chain of narrow operations run as one step, such as:
+
+      (spark/eduction (comp (map f) (filter g) (mapcat h)) rdd)
+
+  Each partition is processed independently, so stateful transducers like
+  `take` or `partition-all` apply per partition. A transducer which returns
+  `reduced` stops reading the rest of the partition."
+  (^JavaRDDLike
+   [xform ^JavaRDDLike rdd]
+   (eduction xform false rdd))
+  (^JavaRDDLike
+   [xform preserve-partitioning? ^JavaRDDLike rdd]
+   (rdd/set-callsite-name
+     (.mapPartitions
+       rdd
+       (f/transducer-fn xform)
+       (boolean preserve-partitioning?))
+     (rdd/fn-name xform))))
+
+
 (defn map-partitions-indexed
   "Map the function `f` over each partition in `rdd`, producing a sequence of
   results. Returns an RDD representing the concatenation of all the partition
@@ -217,7 +304,8 @@
 (defn map-partitions->pairs
   "Map the function `f` over each partition in `rdd`, producing a sequence of
   key-value pairs. The function will be called with an iterator of the elements
-  of the partition."
+  of the partition. As with `map-partitions`, the results may be any collection,
+  iterator, or reducible value and are consumed incrementally."
   (^JavaPairRDD
    [f ^JavaRDDLike rdd]
    (map-partitions->pairs f false rdd))
@@ -400,6 +488,18 @@
        (int partitions)))))
 
 
+(defn- salted-join
+  "Join `rdd1` and `rdd2` using a skew partitioner, by salting the hot keys in
+  `rdd1` and replicating them in `rdd2`. Calls `join-fn` on the prepared RDDs
+  and the partitioner, then removes the salt from the joined keys."
+  ^JavaPairRDD
+  [join-fn ^SkewPartitioner partitioner ^JavaPairRDD rdd1 ^JavaPairRDD rdd2]
+  (let [salted (.mapToPair rdd1 (.salter partitioner))
+        replicated (.flatMapToPair rdd2 (.replicator partitioner))
+        ^JavaPairRDD joined (join-fn salted replicated partitioner)]
+    (.mapToPair joined (SkewPartitioner/unsalter))))
+
+
 (defn join
   "Construct an RDD containing all pairs of elements with matching keys in
   `rdd1` and `rdd2`. Each pair of elements will be returned as a tuple of
@@ -407,17 +507,32 @@
 
   Performs a hash join across the cluster. Optionally, `partitions` may be
   provided as an integer number or a partitioner instance to control the
-  partitioning of the resulting RDD."
+  partitioning of the resulting RDD. If the partitioner is a
+  `rdd/skew-partitioner`, the hot keys of `rdd1` are spread over several
+  partitions and the matching records of `rdd2` are copied to each of them;
+  the result is not partitioned in that case."
   (^JavaPairRDD
    [^JavaPairRDD rdd1 ^JavaPairRDD rdd2]
    (rdd/set-callsite-name
      (.join rdd1 rdd2)))
   (^JavaPairRDD
    [^JavaPairRDD rdd1 ^JavaPairRDD rdd2 partitions]
-   (if (instance? Partitioner partitions)
+   (cond
+     (instance? SkewPartitioner partitions)
+     (rdd/set-callsite-name
+       (salted-join
+         (fn join*
+           [^JavaPairRDD a ^JavaPairRDD b ^Partitioner p]
+           (.join a b p))
+         partitions rdd1 rdd2)
+       (class partitions))
+
+     (instance? Partitioner partitions)
      (rdd/set-callsite-name
        (.join rdd1 rdd2 ^Partitioner partitions)
        (class partitions))
+
+     :else
      (rdd/set-callsite-name
        (.join rdd1 rdd2 (int partitions))
        (int partitions)))))
@@ -432,17 +547,30 @@
 
   Hash-partitions the resulting RDD using the existing partitioner/parallelism
   level unless `partitions` is be provided as an integer number or a
-  partitioner instance."
+  partitioner instance. As with `join`, a `rdd/skew-partitioner` spreads the
+  hot keys of `rdd1` over several partitions."
   (^JavaPairRDD
    [^JavaPairRDD rdd1 ^JavaPairRDD rdd2]
    (rdd/set-callsite-name
      (.leftOuterJoin rdd1 rdd2)))
   (^JavaPairRDD
    [^JavaPairRDD rdd1 ^JavaPairRDD rdd2 partitions]
-   (if (instance? Partitioner partitions)
+   (cond
+     (instance? SkewPartitioner partitions)
+     (rdd/set-callsite-name
+       (salted-join
+         (fn left-outer-join*
+           [^JavaPairRDD a ^JavaPairRDD b ^Partitioner p]
+           (.leftOuterJoin a b p))
+         partitions rdd1 rdd2)
+       (class partitions))
+
+     (instance? Partitioner partitions)
      (rdd/set-callsite-name
        (.leftOuterJoin rdd1 rdd2 ^Partitioner partitions)
        (class partitions))
+
+     :else
      (rdd/set-callsite-name
        (.leftOuterJoin rdd1 rdd2 (int partitions))
        (int partitions)))))
@@ -457,17 +585,25 @@
 
   Hash-partitions the resulting RDD using the existing partitioner/parallelism
   level unless `partitions` is be provided as an integer number or a
-  partitioner instance."
+  partitioner instance. A `rdd/skew-partitioner` is rejected, since the
+  unmatched records of a salted key would be repeated for every salt."
   (^JavaPairRDD
    [^JavaPairRDD rdd1 ^JavaPairRDD rdd2]
    (rdd/set-callsite-name
      (.rightOuterJoin rdd1 rdd2)))
   (^JavaPairRDD
    [^JavaPairRDD rdd1 ^JavaPairRDD rdd2 partitions]
-   (if (instance? Partitioner partitions)
+   (cond
+     (instance? SkewPartitioner partitions)
+     (throw (IllegalArgumentException.
+              "Skew partitioners are not supported by right-outer-join, since salting would duplicate unmatched records"))
+
+     (instance? Partitioner partitions)
      (rdd/set-callsite-name
        (.rightOuterJoin rdd1 rdd2 ^Partitioner partitions)
        (class partitions))
+
+     :else
      (rdd/set-callsite-name
        (.rightOuterJoin rdd1 rdd2 (int partitions))
        (int partitions)))))
@@ -485,22 +621,142 @@
 
   Hash-partitions the resulting RDD using the existing partitioner/parallelism
   level unless `partitions` is be provided as an integer number or a
-  partitioner instance."
+  partitioner instance. A `rdd/skew-partitioner` is rejected, since the
+  unmatched records of a salted key would be repeated for every salt."
   (^JavaPairRDD
    [^JavaPairRDD rdd1 ^JavaPairRDD rdd2]
    (rdd/set-callsite-name
      (.fullOuterJoin rdd1 rdd2)))
   (^JavaPairRDD
    [^JavaPairRDD rdd1 ^JavaPairRDD rdd2 partitions]
-   (if (instance? Partitioner partitions)
+   (cond
+     (instance? SkewPartitioner partitions)
+     (throw (IllegalArgumentException.
+              "Skew partitioners are not supported by full-outer-join, since salting would duplicate unmatched records"))
+
+     (instance? Partitioner partitions)
      (rdd/set-callsite-name
        (.fullOuterJoin rdd1 rdd2 ^Partitioner partitions)
        (class partitions))
+
+     :else
      (rdd/set-callsite-name
        (.fullOuterJoin rdd1 rdd2 (int partitions))
        (int partitions)))))
 
 
+;; ## Broadcast Joins
+
+(def ^:private default-broadcast-bytes
+  "Default maximum estimated size of a broadcast join table, in bytes."
+  (* 10 1024 1024))
+
+
+(defn- broadcast-join*
+  "Try to collect `small` into a broadcast table and join `large` against it
+  in each partition. Calls `shuffle-join` on the two RDDs instead if the table
+  would be larger than the `:max-bytes` option. `small-left?` is true if
+  `small` is the left side of the join, and `outer?` is true to keep unmatched
+  records from `large`."
+  [shuffle-join small-left? outer? ^JavaPairRDD small ^JavaPairRDD large opts]
+  (let [max-bytes (long (:max-bytes opts default-broadcast-bytes))
+        table (when (pos? max-bytes)
+                (BroadcastJoin/collectTable
+                  small
+                  (int (:parallelism opts 4))
+                  max-bytes))]
+    (if table
+      (let [ctx (JavaSparkContext/fromSparkContext (.context large))]
+        (rdd/set-callsite-name
+          (.mapPartitionsToPair
+            large
+            (BroadcastJoin. (broadcast ctx table) small-left? outer?)
+            true)
+          (.size table)))
+      (if small-left?
+        (shuffle-join small large)
+        (shuffle-join large small)))))
+
+
+(defn- shuffle-join-fn
+  "Return a function which calls `join-fn` on two RDDs, with the `:partitions`
+  option if one is given."
+  [join-fn opts]
+  (if-let [partitions (:partitions opts)]
+    (fn shuffle-join
+      [rdd1 rdd2]
+      (join-fn rdd1 rdd2 partitions))
+    join-fn))
+
+
+(defn broadcast-join
+  "Join `rdd1` and `rdd2` like `join`, but without shuffling either RDD when
+  `rdd2` is small. The pairs of `rdd2` are collected to the driver and
+  broadcast as a hash table, then each partition of `rdd1` is joined against
+  it in place, keeping the partitioning of `rdd1`. If the estimated size of the
+  table exceeds the limit, collection stops and the RDDs are joined with a
+  shuffle instead.
+
+  Results have the same `(k, (v, w))` shape as `join`. Keys are matched with
+  Java equality, as in a shuffle join.
+
+  Options may include:
+
+  - `:max-bytes`
+    Largest estimated size of `rdd2`'s table to broadcast, defaulting to 10 MB.
+    Zero always shuffles.
+  - `:parallelism`
+    Number of partitions of `rdd2` to fetch at once while collecting it.
+  - `:partitions`
+    Number of partitions or partitioner to pass to `join` when falling back
+    to a shuffle.
+
+  Collecting the small RDD is an action that causes computation."
+  (^JavaPairRDD
+   [rdd1 rdd2]
+   (broadcast-join rdd1 rdd2 nil))
+  (^JavaPairRDD
+   [^JavaPairRDD rdd1 ^JavaPairRDD rdd2 opts]
+   (broadcast-join*
+     (shuffle-join-fn join opts)
+     false false rdd2 rdd1 opts)))
+
+
+(defn broadcast-left-outer-join
+  "Perform a left outer join of `rdd1` and `rdd2` like `left-outer-join`, but
+  without shuffling either RDD when `rdd2` is small. Results have the same
+  `(k, (v, Optional(w)))` shape. Accepts the same options as
+  `broadcast-join`.
+
+  Collecting the small RDD is an action that causes computation."
+  (^JavaPairRDD
+   [rdd1 rdd2]
+   (broadcast-left-outer-join rdd1 rdd2 nil))
+  (^JavaPairRDD
+   [^JavaPairRDD rdd1 ^JavaPairRDD rdd2 opts]
+   (broadcast-join*
+     (shuffle-join-fn left-outer-join opts)
+     false true rdd2 rdd1 opts)))
+
+
+(defn broadcast-right-outer-join
+  "Perform a right outer join of `rdd1` and `rdd2` like `right-outer-join`,
+  but without shuffling either RDD when `rdd1` is small. In this case `rdd1`
+  is the side which is broadcast and `rdd2` keeps its partitioning. Results
+  have the same `(k, (Optional(v), w))` shape. Accepts the same options as
+  `broadcast-join`, with the size limit applying to `rdd1`.
+
+  Collecting the small RDD is an action that causes computation."
+  (^JavaPairRDD
+   [rdd1 rdd2]
+   (broadcast-right-outer-join rdd1 rdd2 nil))
+  (^JavaPairRDD
+   [^JavaPairRDD rdd1 ^JavaPairRDD rdd2 opts]
+   (broadcast-join*
+     (shuffle-join-fn right-outer-join opts)
+     true true rdd1 rdd2 opts)))
+
+
 ;; ## Pair RDD Aggregation
 
 (defn aggregate-by-key
@@ -530,6 +786,42 @@
        (f/fn2 combiner)))))
 
 
+(defn accumulate-by-key
+  "Reduce the values for each key in the pair `rdd` into a possibly mutable
+  accumulator, returning a pair RDD with one completed value per key.
+
+  The reducing function `rf` has the same arities as one passed to
+  `transduce`: `(rf)` returns a new accumulator, `(rf acc v)` adds a value to
+  it, and `(rf acc)` completes it into a persistent value. Accumulators may be
+  transients or mutable Java objects, because they never leave the partition
+  they were created in. Each partition is first reduced locally, then the
+  completed values are shuffled and combined with `(merge-fn acc value)` into
+  a fresh accumulator for each key, which is completed again.
+
+  All of the accumulators for a partition are held in memory until it is
+  finished. The number of reduce tasks is configurable by optionally passing a
+  number of partitions or a partitioner. If `rdd` is already partitioned by
+  the partitioner, the values are reduced in place without a shuffle."
+  (^JavaPairRDD
+   [rf merge-fn ^JavaPairRDD rdd]
+   (accumulate-by-key rf merge-fn (.getNumPartitions rdd) rdd))
+  (^JavaPairRDD
+   [rf merge-fn partitioner-or-num-partitions ^JavaPairRDD rdd]
+   (let [reducer (f/reducer-fn rf)
+         partitioner (if (instance? Partitioner partitioner-or-num-partitions)
+                       partitioner-or-num-partitions
+                       (HashPartitioner. (int partitioner-or-num-partitions)))]
+     (rdd/set-callsite-name
+       (if (= partitioner (rdd/partitioner rdd))
+         (.mapPartitionsToPair rdd (KeyReducer. reducer nil) true)
+         (-> rdd
+             (.mapPartitionsToPair (KeyReducer. reducer nil))
+             (.partitionBy ^Partitioner partitioner)
+             (.mapPartitionsToPair (KeyReducer. reducer (f/fn2 merge-fn)) true)))
+       (rdd/fn-name rf)
+       (rdd/fn-name merge-fn)))))
+
+
 (defn group-by
   "Group the elements of `rdd` using a key function `f`. Returns a pair RDD
   with each generated key and all matching elements as a value sequence."
@@ -560,6 +852,48 @@
      num-partitions)))
 
 
+(defn reduce-groups-by-key
+  "Group the entries in the pair `rdd` by key and call `(f k values)` on each
+  group, returning a pair RDD of each key and its result. Unlike
+  `group-by-key`, the values are never collected in memory: `values` is a
+  single-pass view which can be reduced or iterated once, reading directly
+  from the shuffled partition. Any values `f` does not consume are skipped.
+  Results must not hold on to `values` lazily, such as with an unrealized
+  `map` over it.
+
+  Records are shuffled with `repartition-and-sort-within-partitions`, so the
+  keys must be comparable, and the resulting RDD is partitioned and sorted
+  within each partition by key. The number of reduce tasks is configurable by
+  optionally passing a number of partitions or a partitioner. A `compare-fn`
+  may be given to order the keys; keys it considers equal form one group.
+  With a `rdd/range-partitioner`, the partitioner's ordering is used."
+  (^JavaPairRDD
+   [f ^JavaPairRDD rdd]
+   (reduce-groups-by-key f (.getNumPartitions rdd) rdd))
+  (^JavaPairRDD
+   [f partitioner-or-num-partitions ^JavaPairRDD rdd]
+   (reduce-groups-by-key f nil partitioner-or-num-partitions rdd))
+  (^JavaPairRDD
+   [f compare-fn partitioner-or-num-partitions ^JavaPairRDD rdd]
+   (let [partitioner (if (instance? Partitioner partitioner-or-num-partitions)
+                       partitioner-or-num-partitions
+                       (HashPartitioner. (int partitioner-or-num-partitions)))
+         comparator (cond
+                      compare-fn
+                      (f/comparator-fn compare-fn)
+
+                      (instance? FnRangePartitioner partitioner)
+                      (.keyComparator ^FnRangePartitioner partitioner))
+         ^JavaPairRDD sorted (if comparator
+                               (rdd/repartition-and-sort-within-partitions
+                                 partitioner comparator rdd)
+                               (rdd/repartition-and-sort-within-partitions
+                                 partitioner rdd))]
+     (rdd/set-callsite-name
+       (.mapPartitionsToPair sorted (GroupReducer. (f/fn2 f) comparator) true)
+       (rdd/fn-name f)))))
+
+
 (defn reduce-by-key
   "Aggregate the pairs of `rdd` which share a key by combining all of the
   values with the reducing function `f`. Returns a new pair RDD with one entry
@@ -651,7 +985,9 @@
 (defn into
   "Collect the elements of `rdd` into a collection on the driver. Behaves like
   `clojure.core/into`, including accepting an optional transducer.
-  Automatically coerces Scala tuples into Clojure vectors.
+  Automatically coerces Scala tuples into Clojure vectors, including tuples
+  nested directly inside them such as join results. Other values are not
+  walked.
 
   Be careful not to realize large datasets with this, as the driver will likely
   run out of memory.
@@ -661,10 +997,29 @@
    (into coll identity rdd))
   ([coll xf ^JavaRDDLike rdd]
    (c/into coll
-           (comp (c/map scala/from-tuple) xf)
+           (comp (c/map scala/from-tuples) xf)
            (.collect rdd))))
 
 
+(defn stream
+  "Return a reducible and iterable view of the elements of `rdd`, which fetches
+  them to the driver a partition at a time instead of collecting the whole RDD
+  at once. While one partition is consumed, up to `parallelism - 1` more
+  (default 4 in total) are fetched by concurrent jobs, so the driver holds at
+  most `parallelism` partitions in memory. Elements are returned in partition order, like
+  `collect`, and Scala tuples are not converted.
+
+  Each reduction or iteration runs new jobs. Reducing stops fetching as soon as
+  it finishes, so prefer `reduce`, `transduce`, or `run!` over a lazy `seq` when
+  the stream may not be fully consumed.
+
+  This is an action that causes computation."
+  ([^JavaRDDLike rdd]
+   (stream 4 rdd))
+  ([parallelism ^JavaRDDLike rdd]
+   (PartitionStream. rdd (int parallelism))))
+
+
 (defn foreach
   "Apply the function `f` to all elements of `rdd`. The function will run on
   the executors where the data resides.
@@ -780,6 +1135,31 @@
   (.aggregate rdd zero (f/fn2 aggregator) (f/fn2 combiner)))
 
 
+(defn sum
+  "Add up the elements of the double RDD `rdd`.
+
+  This is an action that causes computation."
+  [^JavaDoubleRDD rdd]
+  (.doubleValue (.sum rdd)))
+
+
+(defn stats
+  "Compute summary statistics for the elements of the double RDD `rdd` in a
+  single pass. Returns a map with the `:count`, `:sum`, `:min`, `:max`,
+  `:mean`, `:stdev`, and `:variance` of the elements.
+
+  This is an action that causes computation."
+  [^JavaDoubleRDD rdd]
+  (let [counter (.stats rdd)]
+    {:count (.count counter)
+     :sum (.sum counter)
+     :min (.min counter)
+     :max (.max counter)
+     :mean (.mean counter)
+     :stdev (.stdev counter)
+     :variance (.variance counter)}))
+
+
 ;; ## Pair RDD Actions
 
 (defn lookup
@@ -807,3 +1187,35 @@
   This is an action that causes computation."
   [^JavaRDDLike rdd]
   (c/into {} (.countByValue rdd)))
+
+
+(defn key-skew
+  "Estimate which keys in `rdd` hold enough records to skew a hash partitioning
+  into `n` partitions. Counts the keys in a random sample of the records, and
+  returns a map from each key holding more than `1/n` of the sample to its
+  estimated fraction of all records. Only these hot keys are collected to the
+  driver. Pass the result to `rdd/skew-partitioner`.
+
+  Options may include:
+
+  - `:fraction`
+    Fraction of records to sample. Defaults to 0.01.
+  - `:seed`
+    Random seed for the sample.
+  - `:key-fn`
+    Function to call on each key before counting it, which should match the
+    key function given to the partitioner.
+
+  This is an action that causes computation."
+  ([n rdd]
+   (key-skew n nil rdd))
+  ([n opts ^JavaPairRDD rdd]
+   (let [{:keys [fraction seed key-fn]
+          :or {fraction 0.01}} opts]
+     (c/into {}
+             (SkewPartitioner/sampleShares
+               rdd
+               (when key-fn (f/fn1 key-fn))
+               (double fraction)
+               (long (or seed (System/nanoTime)))
+               (/ 1.0 (long n)))))))
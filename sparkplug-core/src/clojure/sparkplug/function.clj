@@ -4,21 +4,57 @@
   (:require
     [clojure.string :as str])
   (:import
+    java.lang.ClassValue
     (java.lang.reflect
       Field
       Modifier)
-    java.util.HashSet
-    sparkplug.function.SerializableFn))
+    (java.util
+      Collections
+      HashSet
+      IdentityHashMap
+      Set)
+    java.util.concurrent.atomic.AtomicLong
+    (sparkplug.function
+      FnMetrics
+      FnStats
+      SerializableFn)))
 
 
 ;; ## Namespace Discovery
 
+(def ^:dynamic *max-walk-depth*
+  "Maximum depth of nested objects to traverse when searching a function for
+  namespace references, or nil for no limit. References nested more deeply
+  than this will not be found, so only set this when closures are known to
+  hold deep data structures without any functions in them."
+  nil)
+
+
+(def ^:dynamic *collection-sample-size*
+  "When set, collections with more than this many elements are only traversed
+  while they hold simple values like numbers, strings, and keywords. If the
+  first `*collection-sample-size*` elements of such a collection are all
+  simple, the remaining elements are assumed to be simple as well and are
+  skipped. Nil (the default) traverses every element."
+  nil)
+
+
+(def ^:private ^AtomicLong walk-calls
+  "Number of calls to `namespace-references`."
+  (AtomicLong.))
+
+
+(def ^:private ^AtomicLong walk-nanos
+  "Cumulative time spent in `namespace-references`, in nanoseconds."
+  (AtomicLong.))
+
+
 (defn- fn-enclosing-class
-  "Given a function object, determine the name of the class which the function
+  "Given a function class, determine the name of the class which the function
   is a child of. Usually this is the class representing the namespace where the
   function is defined."
-  [f]
-  (-> (.getName (class f))
+  [^Class c]
+  (-> (.getName c)
       (Compiler/demunge)
       (str/split #"/")
       (first)
@@ -46,36 +82,71 @@
 
 
 (defn- fn-namespace
-  "Given a function object, derive the name of the namespace where it was
+  "Given a function class, derive the name of the namespace where it was
   defined."
-  [f]
+  [^Class c]
   ;; The logic here is to avoid marking class names as namespaces to be
   ;; required. When using a piece of data as a function, such as a keyword or
   ;; set, this will actually be a class name like `clojure.lang.Keyword`. This
   ;; also happens when referencing a function closure defined inside of a
   ;; record implementation, since the function becomes an inner class; in that
   ;; case, we _do_ want to mark the record's defining namespace.
-  (let [enclosing (fn-enclosing-class f)]
+  (let [enclosing (fn-enclosing-class c)]
     (if (class-name? enclosing)
       (type-namespace enclosing)
       enclosing)))
 
 
+(def ^:private ^ClassValue class-fields
+  "Cache of the declared fields of each class, split into vectors of `:static`
+  and `:instance` fields."
+  (proxy [ClassValue] []
+
+    (computeValue
+      [^Class c]
+      (let [fields (group-by #(if (Modifier/isStatic (.getModifiers ^Field %))
+                                :static
+                                :instance)
+                             (.getDeclaredFields c))]
+        {:static (vec (:static fields))
+         :instance (vec (:instance fields))}))))
+
+
+(defn- identity-set
+  "Construct a new mutable set which compares elements by identity."
+  ^Set
+  []
+  (Collections/newSetFromMap (IdentityHashMap.)))
+
+
+(defn- simple-value?
+  "True if the value is a simple type that can't have namespace references."
+  [obj]
+  (or (nil? obj)
+      (boolean? obj)
+      (string? obj)
+      (number? obj)
+      (keyword? obj)
+      (symbol? obj)
+      (instance? clojure.lang.Ref obj)
+      ;; Primitive arrays and vectors can't hold references.
+      (instance? clojure.core.Vec obj)
+      (let [c (class obj)]
+        (and (.isArray c) (.isPrimitive (.getComponentType c))))))
+
+
+(declare ^:private fn-class-references)
+
+
 (defn- walk-object-refs
   "Walk the given object to find namespaces referenced by vars. Adds discovered
   reference symbols to `references` and tracks values in `visited`."
-  [^HashSet references ^HashSet visited obj]
-  (when-not (or (nil? obj)
-                ;; Simple types that can't have namespace references.
-                (boolean? obj)
-                (string? obj)
-                (number? obj)
-                (keyword? obj)
-                (symbol? obj)
-                (instance? clojure.lang.Ref obj)
+  [^HashSet references ^Set visited depth obj]
+  (when-not (or (simple-value? obj)
+                ;; Stop if we've exceeded the depth budget.
+                (and *max-walk-depth* (< *max-walk-depth* depth))
                 ;; Nothing to do if we've already visited this object.
-                (.contains visited obj))
-    (.add visited obj)
+                (not (.add visited obj)))
     (cond
       ;; Vars directly represent a namespace dependency.
       (var? obj)
@@ -83,40 +154,148 @@
         (.add references ns-sym))
 
       ;; Clojure functions:
-      ;; Try to derive the namespace that defined the function.
-      ;; Functions also have Var references as static fields,
-      ;; and have closed-over objects as non-static fields.
+      ;; The namespace that defined the function and the namespaces of the
+      ;; vars it references as static fields are fixed for each class, so
+      ;; they are cached. Closed-over objects are non-static fields, which
+      ;; must be walked on each instance.
       (fn? obj)
-      (when-let [ns-sym (fn-namespace obj)]
-        (.add references ns-sym)
-        (doseq [^Field field (.getDeclaredFields (class obj))]
+      (when-let [class-refs (.get ^ClassValue fn-class-references (class obj))]
+        (.addAll references ^java.util.Collection class-refs)
+        (doseq [^Field field (:instance (.get class-fields (class obj)))]
           (let [value (SerializableFn/accessField obj field)]
-            (walk-object-refs references visited value))))
+            (walk-object-refs references visited (inc depth) value))))
 
       ;; For collection-like objects, (e.g. vectors, maps, records, Java collections),
       ;; just traverse the objects they contain.
       (seqable? obj)
-      (doseq [entry obj]
-        (walk-object-refs references visited entry))
+      (let [limit *collection-sample-size*
+            sample? (and limit (counted? obj) (< limit (count obj)))
+            n (volatile! 0)
+            all-simple? (volatile! true)
+            walk-element (fn walk-element
+                           [x]
+                           (when-not (simple-value? x)
+                             (vreset! all-simple? false))
+                           (walk-object-refs references visited (inc depth) x))
+            done? (fn done?
+                    []
+                    (and sample? @all-simple? (<= limit (vswap! n inc))))]
+        (if (map? obj)
+          (reduce-kv
+            (fn walk-entry
+              [_ k v]
+              (walk-element k)
+              (walk-element v)
+              (when (done?) (reduced nil)))
+            nil
+            obj)
+          (reduce
+            (fn walk-item
+              [_ x]
+              (walk-element x)
+              (when (done?) (reduced nil)))
+            nil
+            obj)))
 
       ;; Otherwise, reflectively traverse the fields of the object for more references.
       :else
-      (doseq [^Field field (.getDeclaredFields (class obj))]
-        (when-not (Modifier/isStatic (.getModifiers field))
-          (let [value (SerializableFn/accessField obj field)]
-            (walk-object-refs references visited value)))))))
+      (doseq [^Field field (:instance (.get class-fields (class obj)))]
+        (let [value (SerializableFn/accessField obj field)]
+          (walk-object-refs references visited (inc depth) value))))))
+
+
+(def ^:private ^ClassValue fn-class-references
+  "Cache of the namespaces referenced by each function class, from its
+  defining namespace and the static fields of the class. The value is nil if
+  the defining namespace could not be determined."
+  (proxy [ClassValue] []
+
+    (computeValue
+      [^Class c]
+      (when-let [ns-sym (fn-namespace c)]
+        (let [references (HashSet.)
+              visited (identity-set)]
+          (.add references ns-sym)
+          (doseq [^Field field (:static (.get class-fields c))]
+            (let [value (SerializableFn/accessField nil field)]
+              (walk-object-refs references visited 1 value)))
+          (set references))))))
 
 
 (defn namespace-references
   "Walk the given function-like object to find all namespaces referenced by
   closed-over vars. Returns a set of referenced namespace symbols."
   [^Object obj]
-  (let [references (HashSet.)
-        visited (HashSet.)]
-    (walk-object-refs references visited obj)
+  (let [start (System/nanoTime)
+        references (HashSet.)
+        visited (identity-set)]
+    (walk-object-refs references visited 0 obj)
+    (.incrementAndGet walk-calls)
+    (.addAndGet walk-nanos (- (System/nanoTime) start))
     (disj (set references) 'clojure.core)))
 
 
+(defn reference-walk-stats
+  "Return a map of statistics about the time this JVM has spent walking
+  functions to find their namespace references."
+  []
+  {:calls (.get walk-calls)
+   :nanos (.get walk-nanos)})
+
+
+(defn require-lock-stats
+  "Return a map of statistics about how function deserialization in this JVM
+  has used the global require lock. Namespaces are only loaded under the lock
+  the first time they are seen, so `:acquisitions` should stop growing once
+  all referenced code is loaded."
+  []
+  {:acquisitions (SerializableFn/getRequireLockWaits)
+   :wait-nanos (SerializableFn/getRequireLockWaitNanos)})
+
+
+;; ## Execution Metrics
+
+(defn fn-metrics
+  "Return execution metrics for the wrapped functions run by the active Spark
+  context, which are only recorded when the
+  `spark.sparkplug.function.metrics.enabled` property is set to `true`. The
+  result maps each function's demunged name, as given by
+  `sparkplug.rdd/fn-name`, to a map of:
+
+  - `:calls` number of times the function was called
+  - `:errors` number of calls which threw an exception
+  - `:outputs` number of results consumed from a flat-map function
+  - `:total-nanos` cumulative time spent in the function
+  - `:max-nanos` longest single call
+  - `:p50-nanos`, `:p90-nanos`, `:p99-nanos` estimated latency percentiles
+
+  Latency covers the call itself, not realizing a lazy result. Metrics from a
+  task are included once it finishes. Returns nil if the active context has
+  not run any metered functions, or when called on an executor."
+  []
+  (when-let [metrics (FnMetrics/active)]
+    (into (sorted-map)
+          (map (fn [[fn-name ^FnStats stats]]
+                 [fn-name
+                  {:calls (.calls stats)
+                   :errors (.errors stats)
+                   :outputs (.outputs stats)
+                   :total-nanos (.totalNanos stats)
+                   :max-nanos (.maxNanos stats)
+                   :p50-nanos (.percentileNanos stats 0.50)
+                   :p90-nanos (.percentileNanos stats 0.90)
+                   :p99-nanos (.percentileNanos stats 0.99)}]))
+          (.value metrics))))
+
+
+(defn reset-fn-metrics!
+  "Clear the execution metrics recorded for wrapped functions by the active
+  Spark context."
+  []
+  (when-let [metrics (FnMetrics/active)]
+    (.reset metrics)))
+
+
 ;; ## Function Wrappers
 
 (defmacro ^:private gen-function
@@ -135,8 +314,11 @@
 (gen-function Fn2 fn2)
 (gen-function Fn3 fn3)
 (gen-function ComparatorFn comparator-fn)
+(gen-function DoubleFn double-fn)
 (gen-function FlatMapFn1 flat-map-fn)
 (gen-function FlatMapFn2 flat-map-fn2)
 (gen-function PairFlatMapFn pair-flat-map-fn)
 (gen-function PairFn pair-fn)
+(gen-function ReducerFn reducer-fn)
+(gen-function TransducerFn transducer-fn)
 (gen-function VoidFn void-fn)
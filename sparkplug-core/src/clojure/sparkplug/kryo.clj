@@ -19,9 +19,26 @@
   - `configure      {{config-fn}}`
     Resolve the named function and call it on the Kryo instance to directly
     configure it.
-
-  Blank lines or lines beginning with a hash (#) are ignored."
+  - `intern         {{ident}}     ...`
+    Register one or more keywords (written with a leading colon) or symbols
+    as well-known idents. These are serialized as small fixed IDs instead of
+    strings, so every JVM reading the data must load the same registries.
+  - `schema         {{key}}       ...`
+    Declare a map schema from the keys given, written like `intern` idents.
+    Maps with exactly these keys are serialized as a schema ID followed by
+    their values in key order. As with `intern`, every JVM reading the data
+    must load the same registries.
+
+  Blank lines or lines beginning with a hash (#) are ignored.
+
+  Scanning the classpath for registries can be slow with many JARs. Use
+  `write-snapshot!` at build time or on the driver to save the resolved
+  registries to a file. Executors load a snapshot from the file named by the
+  `spark.sparkplug.kryo.snapshot` property, or from the
+  `sparkplug/kryo/registry.edn` resource, and only fall back to scanning the
+  classpath when neither is present."
   (:require
+    [clojure.edn :as edn]
     [clojure.java.classpath :as classpath]
     [clojure.java.io :as io]
     [clojure.string :as str]
@@ -29,12 +46,6 @@
   (:import
     (clojure.lang
       BigInt
-      IPersistentMap
-      IPersistentSet
-      IPersistentVector
-      ISeq
-      Keyword
-      Named
       PersistentTreeMap
       PersistentTreeSet
       Ratio
@@ -44,13 +55,34 @@
       Kryo
       Serializer)
     (com.esotericsoftware.kryo.io
+      ByteBufferInput
+      ByteBufferOutput
       Input
       Output)
-    java.io.File
+    (java.io
+      File
+      InputStream
+      OutputStream
+      PushbackReader)
     java.math.BigInteger
+    java.nio.ByteBuffer
+    java.util.function.Supplier
     (java.util.jar
       JarFile)
-    org.objenesis.strategy.StdInstantiatorStrategy))
+    (org.apache.spark
+      SparkEnv
+      SparkFiles)
+    org.objenesis.strategy.StdInstantiatorStrategy
+    sparkplug.scala.Pair
+    (sparkplug.kryo
+      IdentSerializer
+      MapEntrySerializer
+      PairSerializer
+      MapSerializer
+      PrimitiveVectorSerializer
+      SequenceSerializer
+      SetSerializer
+      VectorSerializer)))
 
 
 ;; ## Registry Files
@@ -171,6 +203,92 @@
     (vals)))
 
 
+;; ## Registry Snapshots
+
+(def ^:const snapshot-property
+  "Spark property or system property naming a registry snapshot file."
+  "spark.sparkplug.kryo.snapshot")
+
+
+(def ^:const snapshot-resource
+  "Classpath resource to load a registry snapshot from if the snapshot
+  property is not set."
+  "sparkplug/kryo/registry.edn")
+
+
+(def ^:const snapshot-version
+  "Version of the registry snapshot format."
+  1)
+
+
+(defn write-snapshot!
+  "Scan the classpath for registries and write them to a snapshot file at
+  `dest`, which can be a path or anything else accepted by
+  `clojure.java.io/writer`. Returns the snapshotted registries.
+
+  This can be run as a build step to bundle the snapshot as a resource:
+
+      lein run -m sparkplug.kryo/write-snapshot! resources/sparkplug/kryo/registry.edn"
+  [dest]
+  (let [registries (vec (classpath-registries))]
+    (io/make-parents (io/file (str dest)))
+    (with-open [writer (io/writer dest)]
+      (binding [*out* writer
+                *print-length* nil
+                *print-level* nil]
+        (prn {::snapshot snapshot-version
+              :registries registries})))
+    (log/infof "Wrote snapshot of %d Kryo registries to %s"
+               (count registries) dest)
+    registries))
+
+
+(defn read-snapshot
+  "Read the registries from a snapshot written by `write-snapshot!`. The
+  `source` can be a file, URL, or anything else accepted by
+  `clojure.java.io/reader`."
+  [source]
+  (let [snapshot (with-open [reader (PushbackReader. (io/reader source))]
+                   (edn/read reader))]
+    (when-not (= snapshot-version (::snapshot snapshot))
+      (throw (ex-info (str "Unsupported Kryo registry snapshot version "
+                           (pr-str (::snapshot snapshot)))
+                      {:source (str source)
+                       :version (::snapshot snapshot)})))
+    (:registries snapshot)))
+
+
+(defn- snapshot-file
+  "Resolve the snapshot file named by the snapshot property, if set. Relative
+  names which don't exist in the working directory are looked up in the Spark
+  files added to the job."
+  []
+  (when-let [path (if-let [env (SparkEnv/get)]
+                    (.get (.conf env) snapshot-property nil)
+                    (System/getProperty snapshot-property))]
+    (let [file (io/file path)]
+      (if (or (.exists file) (.isAbsolute file) (nil? (SparkEnv/get)))
+        file
+        (io/file (SparkFiles/get path))))))
+
+
+(defn- find-snapshot
+  "Load registries from the configured snapshot file or bundled snapshot
+  resource. Returns nil if neither is present, or if the snapshot cannot be
+  read."
+  []
+  (when-let [source (or (snapshot-file) (io/resource snapshot-resource))]
+    (try
+      (let [registries (read-snapshot source)]
+        (log/debugf "Loaded %d Kryo registries from snapshot %s"
+                    (count registries) source)
+        registries)
+      (catch Exception ex
+        (log/warn ex "Failed to read Kryo registry snapshot from" (str source)
+                  "- falling back to classpath scan")
+        nil))))
+
+
 ;; ## Registry Actions
 
 (defn- load-require-action
@@ -269,6 +387,46 @@
                         {:type ::bad-action})))))
 
 
+(defn- parse-ident
+  "Parse a registry argument as a keyword if it starts with a colon, otherwise
+  as a symbol."
+  [arg]
+  (if (str/starts-with? arg ":")
+    (keyword (subs arg 1))
+    (symbol arg)))
+
+
+(defn- load-intern-action
+  "Prepare an `intern` action from a registry. Registers each keyword or
+  symbol as a well-known ident and returns nil."
+  [args]
+  (when (empty? args)
+    (throw (ex-info "intern action takes at least one argument"
+                    {:type ::bad-action})))
+  (doseq [ident (map parse-ident args)]
+    (log/debug "Interning well-known ident" ident)
+    (IdentSerializer/registerWellKnown ident))
+  ;; Nothing to do per-kryo instance afterwards.
+  nil)
+
+
+(defn- load-schema-action
+  "Prepare a `schema` action from a registry. Registers the keys as a map
+  schema and returns nil."
+  [args]
+  (when (empty? args)
+    (throw (ex-info "schema action takes at least one argument"
+                    {:type ::bad-action})))
+  (let [schema-keys (mapv parse-ident args)]
+    (when-not (apply distinct? schema-keys)
+      (throw (ex-info "schema action keys must be distinct"
+                      {:type ::bad-action})))
+    (log/debug "Registering map schema" schema-keys)
+    (MapSerializer/registerSchema (object-array schema-keys)))
+  ;; Nothing to do per-kryo instance afterwards.
+  nil)
+
+
 (defn- load-action
   "Load the configuration `action` as read from the given `registry`.
   Dispatches on action type."
@@ -286,6 +444,12 @@
         :configure
         (load-configure-action args)
 
+        :intern
+        (load-intern-action args)
+
+        :schema
+        (load-schema-action args)
+
         (throw (ex-info (str "Unsupported registry action " (pr-str type))
                         {:type ::bad-action})))
       (catch Exception ex
@@ -314,16 +478,19 @@
 
 
 (defn load-configuration
-  "Walk the classpath and load configuration actions from all discovered
-  registries. Returns a function which can be called on a Kryo serializer to
-  configure it."
-  []
-  (let [actions (into [] (mapcat load-registry) (classpath-registries))]
-    (fn configure!
-      [^Kryo kryo]
-      (.setInstantiatorStrategy kryo (StdInstantiatorStrategy.))
-      (doseq [f actions]
-        (f kryo)))))
+  "Load configuration actions from the given registries. If no registries are
+  provided, they are read from a snapshot if one is available, otherwise by
+  walking the classpath. Returns a function which can be called on a Kryo
+  serializer to configure it."
+  ([]
+   (load-configuration (or (find-snapshot) (classpath-registries))))
+  ([registries]
+   (let [actions (into [] (mapcat load-registry) registries)]
+     (fn configure!
+       [^Kryo kryo]
+       (.setInstantiatorStrategy kryo (StdInstantiatorStrategy.))
+       (doseq [f actions]
+         (f kryo))))))
 
 
 (defn initialize
@@ -383,22 +550,11 @@
 
 ;; ### Core Serializers
 
-(defserializer ident-serializer
-  Named true
-
-  (write
-    [kryo output value]
-    (let [named-str (if (keyword? value)
-                      (subs (str value) 1)
-                      (str value))]
-      (.writeString output named-str)))
-
-  (read
-    [kryo input target-class]
-    (let [named-str (.readString input)]
-      (if (identical? Keyword target-class)
-        (keyword named-str)
-        (symbol named-str)))))
+(defn ident-serializer
+  "Construct a new Kryo serializer for Named values."
+  ^Serializer
+  []
+  (IdentSerializer.))
 
 
 (defn- write-biginteger
@@ -462,8 +618,12 @@
   "Write a sequence of values to the Kryo output."
   [^Kryo kryo ^Output output coll]
   (.writeVarInt output (count coll) true)
-  (doseq [x coll]
-    (.writeClassAndObject kryo output x)))
+  (reduce
+    (fn write-element
+      [_ x]
+      (.writeClassAndObject kryo output x))
+    nil
+    coll))
 
 
 (defn- read-sequence
@@ -473,28 +633,40 @@
     (repeatedly length #(.readClassAndObject kryo input))))
 
 
-(defserializer sequence-serializer
-  ISeq true
+(defn sequence-serializer
+  "Construct a new Kryo serializer for ISeq values."
+  ^Serializer
+  []
+  (SequenceSerializer.))
 
-  (write
-    [kryo output coll]
-    (write-sequence kryo output coll))
 
-  (read
-    [kryo input _]
-    (apply list (read-sequence kryo input))))
+(defn vector-serializer
+  "Construct a new Kryo serializer for IPersistentVector values."
+  ^Serializer
+  []
+  (VectorSerializer.))
 
 
-(defserializer vector-serializer
-  IPersistentVector true
+(defn primitive-vector-serializer
+  "Construct a new Kryo serializer for primitive vectors created with
+  `vector-of`."
+  ^Serializer
+  []
+  (PrimitiveVectorSerializer.))
 
-  (write
-    [kryo output coll]
-    (write-sequence kryo output coll))
 
-  (read
-    [kryo input _]
-    (into [] (read-sequence kryo input))))
+(defn map-entry-serializer
+  "Construct a new Kryo serializer for MapEntry values."
+  ^Serializer
+  []
+  (MapEntrySerializer.))
+
+
+(defn pair-serializer
+  "Construct a new Kryo serializer for sparkplug `Pair` values."
+  ^Serializer
+  []
+  (PairSerializer.))
 
 
 (defserializer string-seq-serializer
@@ -511,16 +683,11 @@
 
 ;; ### Set Serializers
 
-(defserializer set-serializer
-  IPersistentSet true
-
-  (write
-    [kryo output coll]
-    (write-sequence kryo output coll))
-
-  (read
-    [kryo input _]
-    (into #{} (read-sequence kryo input))))
+(defn set-serializer
+  "Construct a new Kryo serializer for IPersistentSet values."
+  ^Serializer
+  []
+  (SetSerializer.))
 
 
 (defserializer ordered-set-serializer
@@ -543,9 +710,13 @@
   "Write a sequence of key/value pairs to the Kryo output."
   [^Kryo kryo ^Output output coll]
   (.writeVarInt output (count coll) true)
-  (doseq [[k v] coll]
-    (.writeClassAndObject kryo output k)
-    (.writeClassAndObject kryo output v)))
+  (reduce-kv
+    (fn write-entry
+      [_ k v]
+      (.writeClassAndObject kryo output k)
+      (.writeClassAndObject kryo output v))
+    nil
+    coll))
 
 
 (defn- read-kvs
@@ -557,16 +728,11 @@
                           (.readClassAndObject kryo input)))))
 
 
-(defserializer map-serializer
-  IPersistentMap true
-
-  (write
-    [kryo output coll]
-    (write-kvs kryo output coll))
-
-  (read
-    [kryo input _]
-    (into {} (read-kvs kryo input))))
+(defn map-serializer
+  "Construct a new Kryo serializer for IPersistentMap values."
+  ^Serializer
+  []
+  (MapSerializer.))
 
 
 (defserializer ordered-map-serializer
@@ -585,20 +751,263 @@
 
 ;; ## Serialization Utilities
 
-;; These are handy for tests and repl usage, but aren't actually used directly
-;; by the library.
+;; These are handy for tests and repl usage, and for reading and writing values
+;; to external stores from task code. They aren't used directly by Spark, which
+;; manages its own Kryo instances and buffers.
+
+(def ^:private ^:const pooled-buffer-limit
+  "Pooled output buffers which grow past this many bytes are discarded after
+  use rather than retained by their thread."
+  (* 1024 1024))
+
+
+(def ^:private empty-bytes
+  (byte-array 0))
+
+
+(def ^:private ^ByteBuffer empty-buffer
+  (ByteBuffer/allocate 0))
+
+
+(def ^:private shared-configuration
+  "Configuration function loaded once for all pooled Kryo instances."
+  (delay (load-configuration)))
+
+
+(defn- thread-local
+  "Construct a thread-local value which is initialized by calling `f`."
+  ^ThreadLocal
+  [f]
+  (ThreadLocal/withInitial
+    (reify Supplier
+      (get
+        [_]
+        (f)))))
+
+
+(defn- new-kryo
+  "Construct a new Kryo instance configured from the classpath registries."
+  ^Kryo
+  []
+  (doto (Kryo.)
+    (@shared-configuration)))
+
+
+(def ^:private ^ThreadLocal local-kryo
+  (thread-local new-kryo))
+
+
+(def ^:private ^ThreadLocal local-output
+  (ThreadLocal.))
+
+
+(def ^:private ^ThreadLocal local-input
+  (ThreadLocal.))
+
+
+(def ^:private ^ThreadLocal local-buffer-output
+  (ThreadLocal.))
+
+
+(def ^:private ^ThreadLocal local-buffer-input
+  (ThreadLocal.))
+
+
+(defn pooled-kryo
+  "Return a Kryo instance configured from the classpath registries which is
+  owned by the current thread. The registries are loaded once and shared by
+  all pooled instances. If the thread's instance is checked out by one of the
+  codec functions in this namespace, a new instance is returned instead."
+  ^Kryo
+  []
+  (or (.get local-kryo) (new-kryo)))
+
+
+(defn- acquire
+  "Take the current thread's pooled buffer out of `pool`, or construct a new
+  one by calling `f` if it is already in use. Buffers are checked out while
+  they are in use so that a nested call, such as from a custom serializer,
+  gets a fresh buffer instead of clobbering the outer one."
+  [^ThreadLocal pool f]
+  (if-let [buffer (.get pool)]
+    (do (.set pool nil)
+        buffer)
+    (f)))
+
+
+(defmacro ^:private with-pooled-kryo
+  "Evaluate `body` with `sym` bound to the current thread's pooled Kryo
+  instance, checked out for the duration so that nested calls get a fresh
+  instance instead of sharing its reference and graph-context state."
+  [[sym] & body]
+  `(let [~(vary-meta sym assoc :tag `Kryo) (acquire local-kryo new-kryo)]
+     (try
+       ~@body
+       (finally
+         (.set local-kryo ~sym)))))
+
+
+(defn- release-output
+  "Return an output to the thread's pool for reuse, or drop it if its buffer
+  has grown too large to keep around."
+  [^Output output]
+  (when (<= (alength (.getBuffer output)) pooled-buffer-limit)
+    (.clear output)
+    (.set local-output output)))
+
 
 (defn encode
-  "Serialize the given object into a byte arary using the Kryo codec."
-  ^bytes
-  [^Kryo kryo obj]
-  (let [output (Output. 512 8192)]
-    (.writeClassAndObject kryo output obj)
-    (.toBytes output)))
+  "Serialize the given object into a byte array using the Kryo codec. Uses the
+  current thread's pooled Kryo instance if one is not provided. The output
+  buffer is pooled per thread whichever Kryo is used, and nested calls get
+  their own buffer."
+  (^bytes
+   [obj]
+   (with-pooled-kryo [kryo]
+     (encode kryo obj)))
+  (^bytes
+   [^Kryo kryo obj]
+   (let [^Output output (acquire local-output #(Output. 4096 -1))]
+     (try
+       (.writeClassAndObject kryo output obj)
+       (.toBytes output)
+       (finally
+         (release-output output))))))
 
 
 (defn decode
-  "Deserialize the given byte array using the Kryo codec."
-  [^Kryo kryo ^bytes data]
-  (let [input (Input. data)]
-    (.readClassAndObject kryo input)))
+  "Deserialize the given byte array using the Kryo codec. Uses the current
+  thread's pooled Kryo instance if one is not provided. Like `encode`, the
+  input is pooled per thread and nested calls get their own."
+  ([data]
+   (with-pooled-kryo [kryo]
+     (decode kryo data)))
+  ([^Kryo kryo ^bytes data]
+   (let [^Input input (acquire local-input #(Input. ^bytes empty-bytes))]
+     (.setBuffer input data)
+     (try
+       (.readClassAndObject kryo input)
+       (finally
+         (.setBuffer input ^bytes empty-bytes)
+         (.set local-input input))))))
+
+
+(defn encode-into!
+  "Serialize the given object directly into a `ByteBuffer`, which may be a
+  heap, direct, or memory-mapped buffer. Writing starts at the buffer's
+  position and may use up to its limit; on success the position is advanced
+  past the written value and the number of bytes written is returned. Throws
+  a `KryoException` if the value does not fit, leaving the position
+  unchanged. Uses the current thread's pooled Kryo instance if one is not
+  provided."
+  ([buffer obj]
+   (with-pooled-kryo [kryo]
+     (encode-into! kryo buffer obj)))
+  ([^Kryo kryo ^ByteBuffer buffer obj]
+   (let [^ByteBufferOutput output (acquire local-buffer-output #(ByteBufferOutput.))
+         target (.slice buffer)]
+     (.setBuffer output target (.capacity target))
+     (try
+       (.writeClassAndObject kryo output obj)
+       (let [length (.position output)]
+         (.position buffer (+ (.position buffer) length))
+         length)
+       (finally
+         (.setBuffer output empty-buffer 0)
+         (.set local-buffer-output output))))))
+
+
+(defn- buffer-stream
+  "Return an input stream over the remaining bytes of the buffer, read through
+  a duplicate so the buffer's own position is left unchanged."
+  ^InputStream
+  [^ByteBuffer buffer]
+  (let [source (.duplicate buffer)]
+    (proxy [InputStream] []
+      (available
+        []
+        (.remaining source))
+      (read
+        ([]
+         (if (.hasRemaining source)
+           (bit-and (.get source) 0xFF)
+           -1))
+        ([bs]
+         (.read ^InputStream this ^bytes bs 0 (alength ^bytes bs)))
+        ([bs off len]
+         (let [n (min (int len) (.remaining source))]
+           (cond
+             (zero? (int len)) 0
+             (zero? n) -1
+             :else (do (.get source ^bytes bs (int off) (int n))
+                       n))))))))
+
+
+(defn decode-from
+  "Deserialize an object directly from a `ByteBuffer`, which may be a heap,
+  direct, or memory-mapped buffer. Reading starts at the buffer's position and
+  the position is advanced past the value read. Uses the current thread's
+  pooled Kryo instance if one is not provided.
+
+  Kryo briefly modifies strings in place while reading them, so read-only
+  buffers are read through a duplicate into a heap buffer instead, which is
+  somewhat slower. The buffer's contents are never changed."
+  ([buffer]
+   (with-pooled-kryo [kryo]
+     (decode-from kryo buffer)))
+  ([^Kryo kryo ^ByteBuffer buffer]
+   (if (.isReadOnly buffer)
+     (let [input (Input. (buffer-stream buffer) 4096)
+           value (.readClassAndObject kryo input)]
+       (.position buffer (+ (.position buffer) (int (.total input))))
+       value)
+     (let [^ByteBufferInput input (acquire local-buffer-input #(ByteBufferInput.))]
+       (.setBuffer input (.slice buffer))
+       (try
+         (let [value (.readClassAndObject kryo input)]
+           (.position buffer (+ (.position buffer) (.position input)))
+           value)
+         (finally
+           (.setBuffer input empty-buffer)
+           (.set local-buffer-input input)))))))
+
+
+(defn write-values!
+  "Serialize each value in the reducible collection `values` to the output
+  stream, one after another. The stream is flushed but not closed. Returns the
+  number of values written. Uses the current thread's pooled Kryo instance if
+  one is not provided."
+  ([stream values]
+   (with-pooled-kryo [kryo]
+     (write-values! kryo stream values)))
+  ([^Kryo kryo ^OutputStream stream values]
+   (let [output (Output. stream 4096)
+         n (reduce
+             (fn write-value
+               [n x]
+               (.writeClassAndObject kryo output x)
+               (inc n))
+             0
+             values)]
+     (.flush output)
+     n)))
+
+
+(defn read-values
+  "Return a lazy sequence of the values read from the input stream, as
+  written by `write-values!`. The sequence ends when the stream is exhausted;
+  the caller is responsible for closing it once the sequence is consumed.
+  If a Kryo instance is not provided, the sequence gets a dedicated one, since
+  it may be realized later or on another thread while the pooled instance is
+  in use."
+  ([stream]
+   (read-values (new-kryo) stream))
+  ([^Kryo kryo ^InputStream stream]
+   (let [input (Input. stream 4096)]
+     (letfn [(read-next
+               []
+               (lazy-seq
+                 (when-not (.eof input)
+                   (cons (.readClassAndObject kryo input)
+                         (read-next)))))]
+       (read-next)))))
@@ -21,7 +21,10 @@
       JavaRDDLike
       JavaSparkContext
       StorageLevels)
-    sparkplug.partition.FnHashPartitioner))
+    (sparkplug.partition
+      FnHashPartitioner
+      FnRangePartitioner
+      SkewPartitioner)))
 
 
 ;; ## Naming Functions
@@ -182,13 +185,71 @@
 (defn hash-partitioner
   "Construct a partitioner which will hash keys to distribute them uniformly
   over `n` buckets. Optionally accepts a `key-fn` which will be called on each
-  key before hashing it."
+  key before hashing it.
+
+  If `key-fn` throws an exception, the key is hashed as if it were nil and
+  only a sample of the failures is logged. Pass an `:error-accumulator` option
+  with a registered long accumulator to count the failures."
   (^Partitioner
    [n]
    (HashPartitioner. (int n)))
   (^Partitioner
    [key-fn n]
-   (FnHashPartitioner. (int n) (f/fn1 key-fn))))
+   (FnHashPartitioner. (int n) (f/fn1 key-fn)))
+  (^Partitioner
+   [key-fn n opts]
+   (FnHashPartitioner. (int n) (f/fn1 key-fn) (:error-accumulator opts))))
+
+
+(defn skew-partitioner
+  "Construct a partitioner which hashes keys like `hash-partitioner`, but
+  spreads the records of hot keys over several partitions. The `skew` map
+  gives the estimated fraction of records for each hot key, as returned by
+  `sparkplug.core/key-skew`; each key is spread over enough partitions to hold
+  about one partition's worth of records apiece. Optionally accepts a `key-fn`
+  which will be called on each key before hashing it or looking it up in
+  `skew`.
+
+  Passing this partitioner to `sparkplug.core/join` or `left-outer-join`
+  salts the hot keys of the first RDD and replicates them in the second, so
+  the largest keys are joined by several tasks; `right-outer-join` and
+  `full-outer-join` reject it. Other operations place hot keys in a single
+  partition, just like `hash-partitioner`. Key function failures are handled
+  as in `hash-partitioner`, including the `:error-accumulator` option."
+  (^Partitioner
+   [n skew]
+   (SkewPartitioner. (int n) nil skew))
+  (^Partitioner
+   [key-fn n skew]
+   (SkewPartitioner. (int n) (f/fn1 key-fn) skew))
+  (^Partitioner
+   [key-fn n skew opts]
+   (SkewPartitioner. (int n) (f/fn1 key-fn) skew (:error-accumulator opts))))
+
+
+(defn range-partitioner
+  "Construct a partitioner which will divide the keys in `rdd` into at most `n`
+  sorted, roughly equal ranges. The range bounds are chosen by sampling keys
+  from each partition of `rdd`, which runs a job. Keys are ordered by
+  `compare`, or by the given `comparator` function, after calling `key-fn` on
+  them if it is provided.
+
+  Use this with `repartition-and-sort-within-partitions` to totally order an
+  RDD's keys without a separate sort stage."
+  (^Partitioner
+   [n rdd]
+   (range-partitioner nil compare n rdd))
+  (^Partitioner
+   [key-fn n rdd]
+   (range-partitioner key-fn compare n rdd))
+  (^Partitioner
+   [key-fn comparator n ^JavaPairRDD rdd]
+   (FnRangePartitioner/sample
+     (int n)
+     rdd
+     (f/comparator-fn comparator)
+     (when key-fn (f/fn1 key-fn))
+     (System/nanoTime))))
 
 
 (defn partitions
@@ -239,10 +300,19 @@
   "Repartition the RDD according to the given partitioner and, within each
   resulting partition, sort records by their keys. This is more efficient than
   calling repartition and then sorting within each partition because it can
-  push the sorting down into the shuffle machinery."
+  push the sorting down into the shuffle machinery.
+
+  When `partitioner` is a `range-partitioner` and no comparator is given,
+  records are sorted with the partitioner's key function and comparator, so
+  the keys of the resulting RDD are totally ordered."
   (^JavaPairRDD
    [^Partitioner partitioner ^JavaPairRDD pair-rdd]
-   (.repartitionAndSortWithinPartitions pair-rdd partitioner))
+   (if (instance? FnRangePartitioner partitioner)
+     (.repartitionAndSortWithinPartitions
+       pair-rdd
+       partitioner
+       (.keyComparator ^FnRangePartitioner partitioner))
+     (.repartitionAndSortWithinPartitions pair-rdd partitioner)))
   (^JavaPairRDD
    [^Partitioner partitioner ^java.util.Comparator comparator ^JavaPairRDD pair-rdd]
    (.repartitionAndSortWithinPartitions pair-rdd partitioner comparator)))
@@ -4,7 +4,9 @@
   (:require
     [clojure.walk :as walk])
   (:import
-    clojure.lang.MapEntry
+    (clojure.lang
+      IPersistentVector
+      MapEntry)
     (scala
       Option
       Product
@@ -17,7 +19,8 @@
       Tuple6
       Tuple7
       Tuple8
-      Tuple9)))
+      Tuple9)
+    sparkplug.scala.Pair))
 
 
 (defn resolve-option
@@ -51,6 +54,14 @@
    (Tuple9. a b c d e f g h i)))
 
 
+(defn pair
+  "Construct a key/value pair which is both a Scala `Tuple2` and a Clojure map
+  entry, so it can be passed to Spark or used as a vector without conversion."
+  ^Pair
+  [k v]
+  (Pair. k v))
+
+
 (defn vec->tuple
   "Coerce a Clojure vector to a Scala tuple. Supports tuples up to size 9."
   [v]
@@ -122,6 +133,39 @@
     (walk/prewalk coerce-product t)))
 
 
+(defn- tuple?
+  "True if the value is a Scala tuple which `tuple->vec` can convert."
+  [x]
+  (or (instance? Tuple2 x)
+      (instance? Tuple1 x)
+      (instance? Tuple3 x)
+      (instance? Tuple4 x)
+      (instance? Tuple5 x)
+      (instance? Tuple6 x)
+      (instance? Tuple7 x)
+      (instance? Tuple8 x)
+      (instance? Tuple9 x)))
+
+
+(defn from-tuples
+  "Coerce a Scala tuple value to a Clojure vector, along with any tuples nested
+  directly inside it, such as the values produced by a join. Unlike
+  `from-tuple`, this does not walk through other values, so Clojure data
+  inside the tuples is returned as-is. Pairs, including `Pair` values, come
+  back as map entries."
+  [x]
+  (cond
+    (instance? Tuple2 x)
+    (let [t ^Tuple2 x]
+      (MapEntry/create (from-tuples (._1 t)) (from-tuples (._2 t))))
+
+    (tuple? x)
+    (mapv from-tuples (tuple->vec x))
+
+    :else
+    x))
+
+
 (defn from-pair
   "Coerce a Scala pair (`Tuple2`) value to a Clojure value. Returns map entry
   values for efficiency. Recursively walks the structure to ensure all nested
@@ -146,12 +190,13 @@
 
     ;; Use key/value from map entries to construct the pair.
     (instance? MapEntry entry)
-    (Tuple2. (key entry) (val entry))
+    (Pair. (key entry) (val entry))
 
     ;; Try to generically coerce a vector result.
     (vector? entry)
     (if (= 2 (count entry))
-      (Tuple2. (clojure.core/first entry) (clojure.core/second entry))
+      (let [v ^IPersistentVector entry]
+        (Pair. (.nth v 0) (.nth v 1)))
       (throw (IllegalArgumentException.
                (str "Cannot coerce a vector with " (count entry)
                     " elements to a pair value"))))
@@ -0,0 +1,76 @@
+package sparkplug.accumulator;
+
+
+import clojure.lang.Keyword;
+import clojure.lang.Symbol;
+import clojure.lang.Util;
+
+import java.util.UUID;
+
+
+/**
+ * Hashing utilities for sketches.
+ */
+final class Hashing {
+
+    private Hashing() {
+    }
+
+
+    /**
+     * Finalization mix from MurmurHash3, spreading the bits of a 64-bit
+     * value.
+     */
+    static long fmix64(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+
+    /**
+     * Hash the characters of a string to 64 bits, before mixing.
+     */
+    private static long stringHash(String s) {
+        long h = 1125899906842597L;
+        for (int i = 0; i < s.length(); i++) {
+            h = 31 * h + s.charAt(i);
+        }
+        return h;
+    }
+
+
+    /**
+     * Compute a 64-bit hash of a value. Integers, doubles, strings, keywords,
+     * symbols, and UUIDs are hashed to the full 64 bits so large numbers of
+     * distinct values rarely collide. Other values, such as collections, are
+     * hashed from their 32-bit Clojure `hash`, so they start to collide once
+     * there are tens of millions of distinct values.
+     *
+     * @param value value to hash
+     * @return 64-bit hash
+     */
+    static long hash64(Object value) {
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return fmix64(((Number)value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number)value).doubleValue();
+            // Clojure treats 0.0 and -0.0 as equal.
+            long bits = (d == 0.0) ? 0L : Double.doubleToLongBits(d);
+            return fmix64(bits ^ 0x2545f4914f6cdd1dL);
+        } else if (value instanceof String) {
+            return fmix64(stringHash((String)value));
+        } else if (value instanceof Keyword || value instanceof Symbol) {
+            long salt = (value instanceof Keyword) ? 0x632be59bd9b4e019L : 0x85157af5a2b8c3d1L;
+            return fmix64(stringHash(value.toString()) ^ salt);
+        } else if (value instanceof UUID) {
+            UUID uuid = (UUID)value;
+            return fmix64(fmix64(uuid.getMostSignificantBits()) ^ uuid.getLeastSignificantBits());
+        }
+        return fmix64(Util.hasheq(value) ^ 0x9e3779b97f4a7c15L);
+    }
+
+}
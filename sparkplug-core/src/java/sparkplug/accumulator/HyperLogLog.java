@@ -0,0 +1,143 @@
+package sparkplug.accumulator;
+
+
+import java.util.Arrays;
+
+
+/**
+ * HyperLogLog sketch estimating the number of distinct values added to it.
+ *
+ * The sketch holds `2^precision` one-byte registers; the relative standard
+ * error of the estimate is about `1.04 / sqrt(2^precision)`, or 0.8% at the
+ * default precision of 14.
+ */
+public class HyperLogLog implements Sketch<HyperLogLog> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_PRECISION = 14;
+
+    private final int precision;
+    private final byte[] registers;
+
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+
+    /**
+     * Construct a new empty sketch.
+     *
+     * @param precision number of index bits, from 4 to 18
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || 18 < precision) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between 4 and 18, got " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+
+    private HyperLogLog(int precision, byte[] registers) {
+        this.precision = precision;
+        this.registers = registers;
+    }
+
+
+    @Override
+    public void add(Object value) {
+        long hash = Hashing.hash64(value);
+        int index = (int)(hash >>> (64 - precision));
+        long rest = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte)(Long.numberOfLeadingZeros(rest) + 1);
+        if (registers[index] < rank) {
+            registers[index] = rank;
+        }
+    }
+
+
+    @Override
+    public void merge(HyperLogLog other) {
+        if (precision != other.precision) {
+            throw new IllegalArgumentException(
+                "Cannot merge HyperLogLog sketches with precision " + precision + " and " + other.precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (registers[i] < other.registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+
+    @Override
+    public HyperLogLog copy() {
+        return new HyperLogLog(precision, registers.clone());
+    }
+
+
+    @Override
+    public HyperLogLog empty() {
+        return new HyperLogLog(precision);
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        for (byte register : registers) {
+            if (register != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Estimate the number of distinct values added to the sketch.
+     *
+     * @return approximate distinct count
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0.0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1.0 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double)m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof HyperLogLog)) {
+            return false;
+        }
+        HyperLogLog that = (HyperLogLog)other;
+        return precision == that.precision && Arrays.equals(registers, that.registers);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * precision + Arrays.hashCode(registers);
+    }
+
+
+    @Override
+    public String toString() {
+        return "HyperLogLog[~" + estimate() + " distinct]";
+    }
+
+}
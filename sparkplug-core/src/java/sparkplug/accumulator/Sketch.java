@@ -0,0 +1,53 @@
+package sparkplug.accumulator;
+
+
+import java.io.Serializable;
+
+
+/**
+ * Fixed-size, mergeable summary of a stream of values.
+ *
+ * @param <S> concrete sketch type
+ */
+public interface Sketch<S extends Sketch<S>> extends Serializable {
+
+    /**
+     * Add a value to the sketch.
+     *
+     * @param value value to add
+     */
+    void add(Object value);
+
+
+    /**
+     * Merge another sketch with the same parameters into this one.
+     *
+     * @param other sketch to merge
+     */
+    void merge(S other);
+
+
+    /**
+     * Return an independent copy of this sketch.
+     *
+     * @return copied sketch
+     */
+    S copy();
+
+
+    /**
+     * Return a new empty sketch with the same parameters as this one.
+     *
+     * @return empty sketch
+     */
+    S empty();
+
+
+    /**
+     * True if no values have been added to the sketch.
+     *
+     * @return whether the sketch is empty
+     */
+    boolean isEmpty();
+
+}
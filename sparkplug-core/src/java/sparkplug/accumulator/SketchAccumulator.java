@@ -0,0 +1,76 @@
+package sparkplug.accumulator;
+
+
+import org.apache.spark.util.AccumulatorV2;
+
+
+/**
+ * Accumulator which adds values to a sketch and merges the sketches from
+ * each task. The accumulated value is a copy of the sketch, which can be
+ * queried on the driver; some queries, such as `TDigest.quantile`, reorganize
+ * the sketch, so they must not run on the accumulator's own sketch while
+ * Spark may be merging task results into it.
+ *
+ * @param <S> sketch type
+ */
+public class SketchAccumulator<S extends Sketch<S>> extends AccumulatorV2<Object, S> {
+
+    private static final long serialVersionUID = 1L;
+
+    private S sketch;
+
+
+    /**
+     * Construct a new accumulator starting from the given sketch.
+     *
+     * @param sketch initial sketch
+     */
+    public SketchAccumulator(S sketch) {
+        if (sketch == null) {
+            throw new IllegalArgumentException("Sketch must not be null");
+        }
+        this.sketch = sketch;
+    }
+
+
+    @Override
+    public boolean isZero() {
+        return sketch.isEmpty();
+    }
+
+
+    @Override
+    public AccumulatorV2<Object, S> copy() {
+        return new SketchAccumulator<S>(sketch.copy());
+    }
+
+
+    @Override
+    public void reset() {
+        sketch = sketch.empty();
+    }
+
+
+    @Override
+    public void add(Object value) {
+        sketch.add(value);
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void merge(AccumulatorV2<Object, S> other) {
+        if (!(other instanceof SketchAccumulator)) {
+            throw new UnsupportedOperationException(
+                "Cannot merge " + getClass().getName() + " with " + other.getClass().getName());
+        }
+        sketch.merge(((SketchAccumulator<S>)other).sketch);
+    }
+
+
+    @Override
+    public S value() {
+        return sketch.copy();
+    }
+
+}
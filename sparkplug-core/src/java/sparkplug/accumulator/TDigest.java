@@ -0,0 +1,240 @@
+package sparkplug.accumulator;
+
+
+import java.util.Arrays;
+
+
+/**
+ * Merging t-digest sketch estimating quantiles of the numbers added to it.
+ *
+ * Values are buffered and periodically merged into a sorted list of weighted
+ * centroids, which are kept small near the tails of the distribution so
+ * extreme quantiles stay accurate. The number of centroids is bounded by
+ * about twice the compression parameter.
+ */
+public class TDigest implements Sketch<TDigest> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final double DEFAULT_COMPRESSION = 100.0;
+
+    private final double compression;
+
+    private double[] means;
+    private double[] weights;
+    private int centroids;
+
+    private double[] buffer;
+    private int buffered;
+
+    private double total;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+
+    public TDigest() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+
+    /**
+     * Construct a new empty sketch.
+     *
+     * @param compression accuracy parameter; larger values keep more
+     *                    centroids
+     */
+    public TDigest(double compression) {
+        if (!(compression >= 10.0)) {
+            throw new IllegalArgumentException("t-digest compression must be at least 10, got " + compression);
+        }
+        this.compression = compression;
+        int capacity = (int)Math.ceil(2 * compression) + 10;
+        this.means = new double[capacity];
+        this.weights = new double[capacity];
+        this.buffer = new double[(int)Math.ceil(5 * compression)];
+    }
+
+
+    @Override
+    public void add(Object value) {
+        double x = ((Number)value).doubleValue();
+        if (Double.isNaN(x)) {
+            throw new IllegalArgumentException("Cannot add NaN to a t-digest");
+        }
+        buffer[buffered++] = x;
+        total += 1.0;
+        min = Math.min(min, x);
+        max = Math.max(max, x);
+        if (buffered == buffer.length) {
+            compress(null, null, 0);
+        }
+    }
+
+
+    /**
+     * Merge the buffered values and any extra centroids into the centroid
+     * list.
+     */
+    private void compress(double[] extraMeans, double[] extraWeights, int extra) {
+        int n = centroids + buffered + extra;
+        if (n == centroids) {
+            return;
+        }
+        double[] allMeans = new double[n];
+        double[] allWeights = new double[n];
+        System.arraycopy(means, 0, allMeans, 0, centroids);
+        System.arraycopy(weights, 0, allWeights, 0, centroids);
+        for (int i = 0; i < buffered; i++) {
+            allMeans[centroids + i] = buffer[i];
+            allWeights[centroids + i] = 1.0;
+        }
+        if (extra > 0) {
+            System.arraycopy(extraMeans, 0, allMeans, centroids + buffered, extra);
+            System.arraycopy(extraWeights, 0, allWeights, centroids + buffered, extra);
+        }
+        buffered = 0;
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(allMeans[a], allMeans[b]));
+
+        double weightTotal = 0.0;
+        for (int i = 0; i < n; i++) {
+            weightTotal += allWeights[i];
+        }
+
+        double[] newMeans = new double[n];
+        double[] newWeights = new double[n];
+        int count = 0;
+        double mean = allMeans[order[0]];
+        double weight = allWeights[order[0]];
+        double before = 0.0;
+        for (int i = 1; i < n; i++) {
+            double m = allMeans[order[i]];
+            double w = allWeights[order[i]];
+            double proposed = weight + w;
+            double q0 = before / weightTotal;
+            double q2 = (before + proposed) / weightTotal;
+            double limit = weightTotal * 4.0 * Math.min(q0 * (1 - q0), q2 * (1 - q2)) / compression;
+            if (proposed <= limit) {
+                mean += (m - mean) * w / proposed;
+                weight = proposed;
+            } else {
+                newMeans[count] = mean;
+                newWeights[count] = weight;
+                count++;
+                before += weight;
+                mean = m;
+                weight = w;
+            }
+        }
+        newMeans[count] = mean;
+        newWeights[count] = weight;
+        count++;
+
+        means = Arrays.copyOf(newMeans, Math.max(count, means.length));
+        weights = Arrays.copyOf(newWeights, Math.max(count, weights.length));
+        centroids = count;
+    }
+
+
+    @Override
+    public void merge(TDigest other) {
+        if (other.total == 0.0) {
+            return;
+        }
+        TDigest source = other.copy();
+        source.compress(null, null, 0);
+        total += source.total;
+        min = Math.min(min, source.min);
+        max = Math.max(max, source.max);
+        compress(source.means, source.weights, source.centroids);
+    }
+
+
+    @Override
+    public TDigest copy() {
+        TDigest digest = new TDigest(compression);
+        digest.means = means.clone();
+        digest.weights = weights.clone();
+        digest.centroids = centroids;
+        digest.buffer = buffer.clone();
+        digest.buffered = buffered;
+        digest.total = total;
+        digest.min = min;
+        digest.max = max;
+        return digest;
+    }
+
+
+    @Override
+    public TDigest empty() {
+        return new TDigest(compression);
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return total == 0.0;
+    }
+
+
+    /**
+     * Return the number of values added to the sketch.
+     *
+     * @return total count
+     */
+    public long count() {
+        return (long)total;
+    }
+
+
+    /**
+     * Estimate the value at quantile `q` of the added numbers.
+     *
+     * @param q quantile between 0 and 1
+     * @return approximate value, or NaN if the sketch is empty
+     */
+    public double quantile(double q) {
+        if (q < 0.0 || 1.0 < q) {
+            throw new IllegalArgumentException("Quantile must be between 0 and 1, got " + q);
+        }
+        compress(null, null, 0);
+        if (centroids == 0) {
+            return Double.NaN;
+        } else if (centroids == 1) {
+            return means[0];
+        }
+        double target = q * total;
+        if (target < weights[0] / 2) {
+            return interpolate(min, means[0], target / (weights[0] / 2));
+        }
+        double last = weights[centroids - 1];
+        if (total - last / 2 <= target) {
+            return interpolate(means[centroids - 1], max, (target - (total - last / 2)) / (last / 2));
+        }
+        double center = weights[0] / 2;
+        for (int i = 0; i < centroids - 1; i++) {
+            double next = center + (weights[i] + weights[i + 1]) / 2;
+            if (target < next) {
+                return interpolate(means[i], means[i + 1], (target - center) / (next - center));
+            }
+            center = next;
+        }
+        return max;
+    }
+
+
+    private static double interpolate(double a, double b, double t) {
+        return a + (b - a) * Math.max(0.0, Math.min(1.0, t));
+    }
+
+
+    @Override
+    public String toString() {
+        return "TDigest[" + count() + " values]";
+    }
+
+}
@@ -0,0 +1,186 @@
+package sparkplug.accumulator;
+
+
+import clojure.lang.IPersistentVector;
+import clojure.lang.PersistentVector;
+import clojure.lang.Tuple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Space-saving sketch tracking the most frequent values added to it.
+ *
+ * The sketch keeps a fixed number of counters. When a new value arrives and
+ * all counters are in use, the value with the smallest count is replaced and
+ * the new value inherits its count, so counts may overestimate by up to that
+ * amount. Any value occurring more than `total / capacity` times is always
+ * tracked.
+ *
+ * Merged sketches sum the counters of values tracked on both sides. A value
+ * tracked on only one side is credited with the other side's smallest count,
+ * which bounds how often it could have occurred there, and the largest
+ * counters are kept. Counts stay upper bounds and the guarantee above holds
+ * for the merged total.
+ */
+public class TopK implements Sketch<TopK> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private final int capacity;
+    private final HashMap<Object, long[]> counters;
+    private long total;
+
+
+    public TopK() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Construct a new empty sketch.
+     *
+     * @param capacity number of values to track
+     */
+    public TopK(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Top-k capacity must be positive, got " + capacity);
+        }
+        this.capacity = capacity;
+        this.counters = new HashMap<Object, long[]>(2 * capacity);
+    }
+
+
+    /**
+     * Return the tracked value with the smallest count.
+     */
+    private Map.Entry<Object, long[]> minimum() {
+        Map.Entry<Object, long[]> min = null;
+        for (Map.Entry<Object, long[]> entry : counters.entrySet()) {
+            if (min == null || entry.getValue()[0] < min.getValue()[0]) {
+                min = entry;
+            }
+        }
+        return min;
+    }
+
+
+    @Override
+    public void add(Object value) {
+        total++;
+        long[] counter = counters.get(value);
+        if (counter != null) {
+            counter[0]++;
+        } else if (counters.size() < capacity) {
+            counters.put(value, new long[] { 1L, 0L });
+        } else {
+            Map.Entry<Object, long[]> min = minimum();
+            long floor = min.getValue()[0];
+            counters.remove(min.getKey());
+            counters.put(value, new long[] { floor + 1, floor });
+        }
+    }
+
+
+    /**
+     * Return the most times an untracked value could have been added, which
+     * is zero unless every counter is in use.
+     */
+    private long floor() {
+        return (counters.size() < capacity) ? 0L : minimum().getValue()[0];
+    }
+
+
+    @Override
+    public void merge(TopK other) {
+        long floor = floor();
+        long otherFloor = other.floor();
+        if (otherFloor > 0) {
+            for (Map.Entry<Object, long[]> entry : counters.entrySet()) {
+                if (!other.counters.containsKey(entry.getKey())) {
+                    entry.getValue()[0] += otherFloor;
+                    entry.getValue()[1] += otherFloor;
+                }
+            }
+        }
+        for (Map.Entry<Object, long[]> entry : other.counters.entrySet()) {
+            long[] counter = counters.get(entry.getKey());
+            if (counter == null) {
+                long[] value = entry.getValue();
+                counters.put(entry.getKey(), new long[] { value[0] + floor, value[1] + floor });
+            } else {
+                counter[0] += entry.getValue()[0];
+                counter[1] += entry.getValue()[1];
+            }
+        }
+        total += other.total;
+        while (capacity < counters.size()) {
+            counters.remove(minimum().getKey());
+        }
+    }
+
+
+    @Override
+    public TopK copy() {
+        TopK sketch = new TopK(capacity);
+        for (Map.Entry<Object, long[]> entry : counters.entrySet()) {
+            sketch.counters.put(entry.getKey(), entry.getValue().clone());
+        }
+        sketch.total = total;
+        return sketch;
+    }
+
+
+    @Override
+    public TopK empty() {
+        return new TopK(capacity);
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return total == 0;
+    }
+
+
+    /**
+     * Return the total number of values added.
+     *
+     * @return total count
+     */
+    public long total() {
+        return total;
+    }
+
+
+    /**
+     * Return the `k` most frequent values as `[value count]` vectors, in
+     * descending order of estimated count.
+     *
+     * @param k maximum number of values to return
+     * @return vector of value/count pairs
+     */
+    public IPersistentVector top(int k) {
+        List<Map.Entry<Object, long[]>> entries = new ArrayList<Map.Entry<Object, long[]>>(counters.entrySet());
+        Collections.sort(entries, (a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+        IPersistentVector result = PersistentVector.EMPTY;
+        for (int i = 0; i < Math.min(k, entries.size()); i++) {
+            Map.Entry<Object, long[]> entry = entries.get(i);
+            result = result.cons(Tuple.create(entry.getKey(), entry.getValue()[0]));
+        }
+        return result;
+    }
+
+
+    @Override
+    public String toString() {
+        return "TopK[" + counters.size() + " of " + capacity + " tracked]";
+    }
+
+}
@@ -0,0 +1,108 @@
+package sparkplug.broadcast;
+
+
+import clojure.lang.IDeref;
+import clojure.lang.ILookup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.spark.SparkFiles;
+
+
+/**
+ * Reference to a `MappedTable` file distributed to the cluster with
+ * `SparkContext.addFile`.
+ *
+ * Dereferencing the broadcast maps the table from the local copy of the file
+ * the first time it is needed in each JVM, and every task in that JVM then
+ * shares the same mapping. Lookups can be made on the broadcast directly or
+ * on the dereferenced table.
+ */
+public class MappedBroadcast implements IDeref, ILookup, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ConcurrentHashMap<String, MappedTable> tables = new ConcurrentHashMap<String, MappedTable>();
+
+    private final String name;
+    private final String path;
+
+
+    /**
+     * Construct a new mapped broadcast.
+     *
+     * @param name name the file was added to the Spark context under
+     * @param path original path of the file on the driver
+     */
+    public MappedBroadcast(String name, String path) {
+        this.name = name;
+        this.path = path;
+    }
+
+
+    /**
+     * Return the name of the distributed table file.
+     *
+     * @return file name
+     */
+    public String name() {
+        return name;
+    }
+
+
+    /**
+     * Locate the table file in this JVM, preferring the original path when
+     * it exists locally.
+     */
+    private File locate() {
+        File original = new File(path);
+        if (original.isFile()) {
+            return original;
+        }
+        return new File(SparkFiles.get(name));
+    }
+
+
+    @Override
+    public Object deref() {
+        return tables.computeIfAbsent(name, k -> {
+            File file = locate();
+            try {
+                return MappedTable.open(file);
+            } catch (IOException ex) {
+                throw new RuntimeException("Failed to map broadcast table " + file, ex);
+            }
+        });
+    }
+
+
+    @Override
+    public Object valAt(Object key) {
+        return ((MappedTable)deref()).valAt(key);
+    }
+
+
+    @Override
+    public Object valAt(Object key, Object notFound) {
+        return ((MappedTable)deref()).valAt(key, notFound);
+    }
+
+
+    /**
+     * Drop this JVM's mapping of the table, if any. The mapping is released
+     * once the table is no longer referenced.
+     */
+    public void release() {
+        tables.remove(name);
+    }
+
+
+    @Override
+    public String toString() {
+        return "MappedBroadcast[" + name + "]";
+    }
+
+}
@@ -0,0 +1,347 @@
+package sparkplug.broadcast;
+
+
+import clojure.lang.AFn;
+import clojure.lang.Counted;
+import clojure.lang.IFn;
+import clojure.lang.ILookup;
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+import clojure.lang.Util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+
+
+/**
+ * Read-only key/value table stored in a memory-mapped file.
+ *
+ * Tables are written once from a map, with each key and value encoded using
+ * the sparkplug Kryo registries. Lookups hash the key with Clojure's `hash`,
+ * binary search a sorted index of entry hashes, and decode only the matching
+ * entries, so the table's data stays off the heap and is shared through the
+ * OS page cache by every JVM on a machine which maps the same file.
+ *
+ * The file starts with a header holding a magic number, the format version,
+ * the number of entries, and the offset of the data section. It is followed
+ * by the index, with one 16-byte slot per entry holding the key's hash and
+ * the absolute offset of the entry's record, sorted by hash. Each record
+ * holds the lengths of the encoded key and value followed by their bytes.
+ * The file is mapped in segments, and records are padded so that none
+ * crosses a segment boundary.
+ */
+public class MappedTable extends AFn implements ILookup, Counted {
+
+    static final int MAGIC = 0x53504d54;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int INDEX_SLOT_SIZE = 16;
+    static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Size of each mapped segment. Must be a multiple of the index slot size.
+     */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private static final Object NOT_FOUND = new Object();
+
+    private final File file;
+    private final int count;
+    private final ByteBuffer[] segments;
+
+
+    /**
+     * Wrapper class to resolve the Kryo pool only once.
+     */
+    private static class Pool {
+
+        private static final IFn pooledKryo;
+
+        static {
+            IFn resolve = RT.var("clojure.core", "requiring-resolve");
+            pooledKryo = (IFn)resolve.invoke(Symbol.intern("sparkplug.kryo", "pooled-kryo"));
+        }
+
+        static Kryo kryo() {
+            return (Kryo)pooledKryo.invoke();
+        }
+
+    }
+
+
+    private MappedTable(File file, int count, ByteBuffer[] segments) {
+        this.file = file;
+        this.count = count;
+        this.segments = segments;
+    }
+
+
+    // ## Writing
+
+    /**
+     * Write the entries of a map to a table file.
+     *
+     * @param file file to write
+     * @param data map of keys to values
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(File file, Map<?, ?> data) throws IOException {
+        Kryo kryo = Pool.kryo();
+        Output output = new Output(4096, -1);
+        int n = data.size();
+        int[] hashes = new int[n];
+        long[] offsets = new long[n];
+        long dataOffset = HEADER_SIZE + (long)INDEX_SLOT_SIZE * n;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            long position = dataOffset;
+            int i = 0;
+            for (Map.Entry<?, ?> entry : data.entrySet()) {
+                if (i == n) {
+                    throw new IllegalArgumentException("Map has more entries than its size reports");
+                }
+                output.clear();
+                kryo.writeClassAndObject(output, entry.getKey());
+                int keyLength = output.position();
+                kryo.writeClassAndObject(output, entry.getValue());
+                int valLength = output.position() - keyLength;
+                long recordLength = RECORD_HEADER_SIZE + (long)keyLength + valLength;
+                if (SEGMENT_SIZE < recordLength) {
+                    throw new IllegalArgumentException(
+                        "Table entry is too large to map: " + recordLength + " bytes");
+                }
+                if (position / SEGMENT_SIZE != (position + recordLength - 1) / SEGMENT_SIZE) {
+                    position = (position / SEGMENT_SIZE + 1) * SEGMENT_SIZE;
+                }
+                ByteBuffer record = ByteBuffer.allocate((int)recordLength);
+                record.putInt(keyLength);
+                record.putInt(valLength);
+                record.put(output.getBuffer(), 0, keyLength + valLength);
+                record.flip();
+                writeFully(channel, record, position);
+                hashes[i] = Util.hasheq(entry.getKey());
+                offsets[i] = position;
+                position += recordLength;
+                i++;
+            }
+            if (i != n) {
+                throw new IllegalArgumentException("Map has fewer entries than its size reports");
+            }
+
+            long[] order = new long[n];
+            for (int j = 0; j < n; j++) {
+                order[j] = ((long)hashes[j] << 32) | j;
+            }
+            Arrays.sort(order);
+            ByteBuffer index = ByteBuffer.allocate(64 * 1024);
+            long indexPosition = HEADER_SIZE;
+            for (long slot : order) {
+                int j = (int)(slot & 0xffffffffL);
+                if (index.remaining() < INDEX_SLOT_SIZE) {
+                    index.flip();
+                    indexPosition += writeFully(channel, index, indexPosition);
+                    index.clear();
+                }
+                index.putInt(hashes[j]);
+                index.putInt(0);
+                index.putLong(offsets[j]);
+            }
+            index.flip();
+            writeFully(channel, index, indexPosition);
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.putInt(VERSION);
+            header.putLong(n);
+            header.putLong(dataOffset);
+            header.putLong(position);
+            header.flip();
+            writeFully(channel, header, 0);
+        }
+    }
+
+
+    /**
+     * Write a buffer to a channel at the given position, returning the number
+     * of bytes written.
+     */
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer, position + written);
+        }
+        return written;
+    }
+
+
+    // ## Reading
+
+    /**
+     * Memory-map a table file for reading.
+     *
+     * @param file table file written by `write`
+     * @return mapped table
+     * @throws IOException if the file cannot be read or is not a table
+     */
+    public static MappedTable open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException("File is too small to be a mapped table: " + file);
+            }
+            int nsegments = (int)((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            ByteBuffer[] segments = new ByteBuffer[nsegments];
+            for (int i = 0; i < nsegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+            ByteBuffer header = segments[0];
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("File is not a mapped table: " + file);
+            }
+            if (header.getInt(4) != VERSION) {
+                throw new IOException("Unsupported mapped table version " + header.getInt(4) + ": " + file);
+            }
+            long count = header.getLong(8);
+            return new MappedTable(file, (int)count, segments);
+        }
+    }
+
+
+    /**
+     * Return the file this table is mapped from.
+     *
+     * @return table file
+     */
+    public File file() {
+        return file;
+    }
+
+
+    private ByteBuffer segment(long position) {
+        return segments[(int)(position / SEGMENT_SIZE)];
+    }
+
+
+    private int indexHash(int i) {
+        long position = HEADER_SIZE + (long)INDEX_SLOT_SIZE * i;
+        return segment(position).getInt((int)(position % SEGMENT_SIZE));
+    }
+
+
+    private long indexOffset(int i) {
+        long position = HEADER_SIZE + (long)INDEX_SLOT_SIZE * i + 8;
+        return segment(position).getLong((int)(position % SEGMENT_SIZE));
+    }
+
+
+    /**
+     * Find the first index slot with the given hash, or `count` if none.
+     */
+    private int firstSlot(int hash) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexHash(mid) < hash) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+
+    /**
+     * Decode one object from a region of a segment.
+     */
+    private static Object decode(Kryo kryo, ByteBuffer segment, int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = segment.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return kryo.readClassAndObject(new Input(bytes));
+    }
+
+
+    private Object lookup(Object key) {
+        int hash = Util.hasheq(key);
+        Kryo kryo = null;
+        for (int i = firstSlot(hash); i < count && indexHash(i) == hash; i++) {
+            long offset = indexOffset(i);
+            ByteBuffer segment = segment(offset);
+            int position = (int)(offset % SEGMENT_SIZE);
+            int keyLength = segment.getInt(position);
+            int valLength = segment.getInt(position + 4);
+            if (kryo == null) {
+                kryo = Pool.kryo();
+            }
+            Object candidate = decode(kryo, segment, position + RECORD_HEADER_SIZE, keyLength);
+            if (Util.equiv(key, candidate)) {
+                return decode(kryo, segment, position + RECORD_HEADER_SIZE + keyLength, valLength);
+            }
+        }
+        return NOT_FOUND;
+    }
+
+
+    @Override
+    public Object valAt(Object key) {
+        return valAt(key, null);
+    }
+
+
+    @Override
+    public Object valAt(Object key, Object notFound) {
+        Object value = lookup(key);
+        return (value == NOT_FOUND) ? notFound : value;
+    }
+
+
+    /**
+     * True if the table has an entry for the given key.
+     *
+     * @param key key to look up
+     * @return whether the key is present
+     */
+    public boolean containsKey(Object key) {
+        return lookup(key) != NOT_FOUND;
+    }
+
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+
+    @Override
+    public Object invoke(Object key) {
+        return valAt(key);
+    }
+
+
+    @Override
+    public Object invoke(Object key, Object notFound) {
+        return valAt(key, notFound);
+    }
+
+
+    @Override
+    public String toString() {
+        return "MappedTable[" + file + ", " + count + " entries]";
+    }
+
+}
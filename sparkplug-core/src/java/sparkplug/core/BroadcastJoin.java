@@ -0,0 +1,186 @@
+package sparkplug.core;
+
+
+import clojure.lang.AFn;
+import clojure.lang.Reduced;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.Optional;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import org.apache.spark.broadcast.Broadcast;
+import org.apache.spark.util.SizeEstimator;
+
+import scala.Tuple2;
+
+
+/**
+ * Function which joins each partition of a large pair RDD against a
+ * broadcast hash table of a small one, so neither side is shuffled.
+ *
+ * The table maps each key of the small RDD to the list of its values. Joined
+ * records have the same shapes as Spark's shuffle joins, `(k, (v, w))` with
+ * `v` from the left RDD and `w` from the right, and outer joins wrap the
+ * values from the small side in an `Optional`. Keys are matched with Java
+ * equality, as in a shuffle join.
+ */
+public class BroadcastJoin implements PairFlatMapFunction<Iterator<Tuple2<Object, Object>>, Object, Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of records to collect before first checking the table size.
+     */
+    static final long FIRST_SIZE_CHECK = 1024;
+
+    private final Broadcast<Map<Object, List<Object>>> table;
+    private final boolean smallLeft;
+    private final boolean outer;
+
+
+    /**
+     * Construct a new broadcast join.
+     *
+     * @param table broadcast table of the small RDD's values by key
+     * @param smallLeft true if the table holds the left side of the join,
+     *                  false if it holds the right side
+     * @param outer true to keep records from the large side which have no
+     *              match, wrapping the small side's values in `Optional`
+     */
+    public BroadcastJoin(Broadcast<Map<Object, List<Object>>> table, boolean smallLeft, boolean outer) {
+        if (table == null) {
+            throw new IllegalArgumentException("Broadcast table must not be null");
+        }
+        this.table = table;
+        this.smallLeft = smallLeft;
+        this.outer = outer;
+    }
+
+
+    /**
+     * Collect the pairs of an RDD into a hash table from each key to the list
+     * of its values, giving up once the estimated size of the table exceeds
+     * `maxBytes`. The size is estimated each time the number of records
+     * collected doubles and once more at the end, so the driver may briefly
+     * hold up to about twice the limit.
+     *
+     * @param rdd pair RDD to collect
+     * @param parallelism number of partitions to fetch at once
+     * @param maxBytes maximum estimated size of the table
+     * @return the table, or null if it is too large
+     */
+    public static Map<Object, List<Object>> collectTable(JavaPairRDD<Object, Object> rdd, int parallelism, long maxBytes) {
+        final Map<Object, List<Object>> table = new HashMap<Object, List<Object>>();
+        Object result = new PartitionStream(rdd, parallelism).reduce(new AFn() {
+
+            private long count = 0;
+            private long nextCheck = FIRST_SIZE_CHECK;
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(Object acc, Object record) {
+                Tuple2<Object, Object> pair = (Tuple2<Object, Object>)record;
+                List<Object> values = table.get(pair._1());
+                if (values == null) {
+                    values = new ArrayList<Object>(1);
+                    table.put(pair._1(), values);
+                }
+                values.add(pair._2());
+                count++;
+                if (count == nextCheck) {
+                    nextCheck *= 2;
+                    if (maxBytes < SizeEstimator.estimate(table)) {
+                        return new Reduced(null);
+                    }
+                }
+                return acc;
+            }
+        }, table);
+        if (result == null || maxBytes < SizeEstimator.estimate(table)) {
+            return null;
+        }
+        return table;
+    }
+
+
+    @Override
+    public Iterator<Tuple2<Object, Object>> call(Iterator<Tuple2<Object, Object>> records) {
+        return new Joined(table.value(), records);
+    }
+
+
+    /**
+     * Build a joined record from a value on the large side and a value on the
+     * small side, which is absent if `present` is false.
+     */
+    private Tuple2<Object, Object> joined(Object key, Object large, Object small, boolean present) {
+        Object smallValue = small;
+        if (outer) {
+            smallValue = present ? Optional.ofNullable(small) : Optional.empty();
+        }
+        if (smallLeft) {
+            return new Tuple2<Object, Object>(key, new Tuple2<Object, Object>(smallValue, large));
+        }
+        return new Tuple2<Object, Object>(key, new Tuple2<Object, Object>(large, smallValue));
+    }
+
+
+    /**
+     * Iterator over the joined records for a partition of the large side.
+     */
+    private final class Joined implements Iterator<Tuple2<Object, Object>> {
+
+        private final Map<Object, List<Object>> table;
+        private final Iterator<Tuple2<Object, Object>> records;
+        private Tuple2<Object, Object> record;
+        private Iterator<Object> matches = Collections.emptyIterator();
+        private Tuple2<Object, Object> unmatched;
+
+
+        Joined(Map<Object, List<Object>> table, Iterator<Tuple2<Object, Object>> records) {
+            this.table = table;
+            this.records = records;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            while (unmatched == null && !matches.hasNext()) {
+                if (!records.hasNext()) {
+                    return false;
+                }
+                record = records.next();
+                List<Object> values = table.get(record._1());
+                if (values != null) {
+                    matches = values.iterator();
+                } else if (outer) {
+                    unmatched = joined(record._1(), record._2(), null, false);
+                }
+            }
+            return true;
+        }
+
+
+        @Override
+        public Tuple2<Object, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (unmatched != null) {
+                Tuple2<Object, Object> result = unmatched;
+                unmatched = null;
+                return result;
+            }
+            return joined(record._1(), record._2(), matches.next(), true);
+        }
+
+    }
+
+}
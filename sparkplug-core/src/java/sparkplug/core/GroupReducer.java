@@ -0,0 +1,235 @@
+package sparkplug.core;
+
+
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.IReduceInit;
+import clojure.lang.RT;
+import clojure.lang.Util;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+
+import scala.Tuple2;
+
+import sparkplug.function.Fn2;
+
+
+/**
+ * Function which calls a reducing function on each group of values in a
+ * partition sorted by key, returning one result per key.
+ *
+ * The values of each group are passed as a single-pass view which is both
+ * reducible and iterable, reading records directly from the partition
+ * iterator. No group is ever held in memory, so this works for keys with
+ * more values than fit on the heap, as long as the sorted partition can be
+ * spilled by Spark. Any values the function does not consume are skipped
+ * before moving on to the next group.
+ */
+public class GroupReducer implements PairFlatMapFunction<Iterator<Tuple2<Object, Object>>, Object, Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Fn2 f;
+    private final Comparator<Object> comparator;
+
+
+    /**
+     * Construct a new group reducer.
+     *
+     * @param f function called with each key and a view of its values
+     * @param comparator optional comparator the partition is sorted with,
+     *                   used to find group boundaries; if null, keys are
+     *                   compared with Clojure equality
+     */
+    public GroupReducer(Fn2 f, Comparator<Object> comparator) {
+        if (f == null) {
+            throw new IllegalArgumentException("Group function must not be null");
+        }
+        this.f = f;
+        this.comparator = comparator;
+    }
+
+
+    @Override
+    public Iterator<Tuple2<Object, Object>> call(Iterator<Tuple2<Object, Object>> records) {
+        return new Groups(records);
+    }
+
+
+    /**
+     * True if two keys belong to the same group.
+     */
+    private boolean sameKey(Object a, Object b) {
+        if (comparator == null) {
+            return Util.equiv(a, b);
+        }
+        return comparator.compare(a, b) == 0;
+    }
+
+
+    /**
+     * Iterator over the results for each group in a sorted partition.
+     */
+    private final class Groups implements Iterator<Tuple2<Object, Object>> {
+
+        private final Iterator<Tuple2<Object, Object>> records;
+        private Tuple2<Object, Object> pending;
+
+
+        Groups(Iterator<Tuple2<Object, Object>> records) {
+            this.records = records;
+            this.pending = records.hasNext() ? records.next() : null;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            return pending != null;
+        }
+
+
+        @Override
+        public Tuple2<Object, Object> next() {
+            if (pending == null) {
+                throw new NoSuchElementException();
+            }
+            Object key = pending._1();
+            GroupValues values = new GroupValues(this, key);
+            Object result;
+            try {
+                result = f.call(key, values);
+            } catch (RuntimeException ex) {
+                throw ex;
+            } catch (Exception ex) {
+                throw new RuntimeException("Error reducing group values", ex);
+            }
+            values.close();
+            return new Tuple2<Object, Object>(key, result);
+        }
+
+
+        /**
+         * Return the next value in the current group, or `END` if the group
+         * is finished.
+         */
+        Object nextValue(Object key) {
+            if (pending == null || !sameKey(key, pending._1())) {
+                return END;
+            }
+            Object value = pending._2();
+            pending = records.hasNext() ? records.next() : null;
+            return value;
+        }
+
+    }
+
+
+    /**
+     * Marker for the end of a group.
+     */
+    private static final Object END = new Object();
+
+    /**
+     * Marker for a value which has not been read yet.
+     */
+    private static final Object UNREAD = new Object();
+
+
+    /**
+     * Single-pass view of the values in one group.
+     */
+    private static final class GroupValues implements IReduceInit, Iterable<Object> {
+
+        private final Groups groups;
+        private final Object key;
+        private boolean started = false;
+        private boolean finished = false;
+
+
+        GroupValues(Groups groups, Object key) {
+            this.groups = groups;
+            this.key = key;
+        }
+
+
+        private void start() {
+            if (started) {
+                throw new IllegalStateException("Group values can only be traversed once");
+            }
+            started = true;
+        }
+
+
+        /**
+         * Return the next value, or `END` once the group is finished.
+         */
+        private Object advance() {
+            if (finished) {
+                return END;
+            }
+            Object value = groups.nextValue(key);
+            if (value == END) {
+                finished = true;
+            }
+            return value;
+        }
+
+
+        /**
+         * Skip any unread values in the group.
+         */
+        void close() {
+            while (advance() != END) {
+                // skip
+            }
+        }
+
+
+        @Override
+        public Object reduce(IFn rf, Object init) {
+            start();
+            Object acc = init;
+            for (Object value = advance(); value != END; value = advance()) {
+                acc = rf.invoke(acc, value);
+                if (RT.isReduced(acc)) {
+                    return ((IDeref)acc).deref();
+                }
+            }
+            return acc;
+        }
+
+
+        @Override
+        public Iterator<Object> iterator() {
+            start();
+            return new Iterator<Object>() {
+
+                private Object next = UNREAD;
+
+                @Override
+                public boolean hasNext() {
+                    if (next == UNREAD) {
+                        next = advance();
+                    }
+                    return next != END;
+                }
+
+                @Override
+                public Object next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Object value = next;
+                    next = UNREAD;
+                    return value;
+                }
+            };
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+package sparkplug.core;
+
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+
+import scala.Tuple2;
+
+import sparkplug.function.Fn2;
+import sparkplug.function.ReducerFn;
+
+
+/**
+ * Function which reduces the values of each key in a partition into an
+ * accumulator, then emits one completed value per key.
+ *
+ * Accumulators may be mutable, such as transients or Java collections, since
+ * they are created, updated, and completed within a single call and never
+ * leave the partition. Only completed values are returned to Spark. By
+ * default each value is added with the reducing function's step arity; a
+ * separate merge function can be given to combine completed values from
+ * other partitions into an accumulator instead.
+ */
+public class KeyReducer implements PairFlatMapFunction<Iterator<Tuple2<Object, Object>>, Object, Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final ReducerFn reducer;
+    private final Fn2 merge;
+
+
+    /**
+     * Construct a new key reducer.
+     *
+     * @param reducer reducing function creating, updating, and completing
+     *                accumulators
+     * @param merge optional function to add values to an accumulator instead
+     *              of the reducer's step arity
+     */
+    public KeyReducer(ReducerFn reducer, Fn2 merge) {
+        if (reducer == null) {
+            throw new IllegalArgumentException("Reducing function must not be null");
+        }
+        this.reducer = reducer;
+        this.merge = merge;
+    }
+
+
+    /**
+     * Mutable holder for the accumulator of a key.
+     */
+    private static final class Box {
+
+        Object acc;
+
+        Box(Object acc) {
+            this.acc = acc;
+        }
+
+    }
+
+
+    @Override
+    public Iterator<Tuple2<Object, Object>> call(Iterator<Tuple2<Object, Object>> records) throws Exception {
+        Map<Object, Box> accs = new HashMap<Object, Box>();
+        while (records.hasNext()) {
+            Tuple2<Object, Object> record = records.next();
+            Box box = accs.get(record._1());
+            if (box == null) {
+                box = new Box(reducer.init());
+                accs.put(record._1(), box);
+            }
+            if (merge == null) {
+                box.acc = reducer.step(box.acc, record._2());
+            } else {
+                box.acc = merge.call(box.acc, record._2());
+            }
+        }
+        final Iterator<Map.Entry<Object, Box>> entries = accs.entrySet().iterator();
+        return new Iterator<Tuple2<Object, Object>>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public Tuple2<Object, Object> next() {
+                Map.Entry<Object, Box> entry = entries.next();
+                entries.remove();
+                return new Tuple2<Object, Object>(entry.getKey(), reducer.complete(entry.getValue().acc));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,258 @@
+package sparkplug.core;
+
+
+import clojure.lang.IDeref;
+import clojure.lang.IFn;
+import clojure.lang.IReduce;
+import clojure.lang.RT;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.spark.SparkContext;
+import org.apache.spark.api.java.JavaRDDLike;
+
+
+/**
+ * Reducible, iterable view of the elements of an RDD which fetches them to
+ * the driver one partition at a time.
+ *
+ * Each partition is collected by a separate job. While the consumer works
+ * through one partition, up to `parallelism - 1` jobs fetch the following
+ * ones, so the driver holds at most `parallelism` partitions in memory,
+ * counting the one being consumed. Every traversal
+ * runs new jobs; reducing stops fetching partitions as soon as the reduction
+ * finishes or returns a `reduced` value.
+ *
+ * The jobs for each traversal run in their own job group. When a traversal
+ * stops early, the group is cancelled and the fetch threads are shut down;
+ * iterators which are abandoned before they are exhausted are cleaned up the
+ * same way once they are garbage collected.
+ */
+public class PartitionStream implements IReduce, Iterable<Object> {
+
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final AtomicInteger groupCounter = new AtomicInteger();
+    private static final Cleaner cleaner = Cleaner.create();
+
+    private final JavaRDDLike<?, ?> rdd;
+    private final int parallelism;
+
+
+    /**
+     * Construct a new partition stream.
+     *
+     * @param rdd RDD to fetch elements from
+     * @param parallelism maximum number of partitions to fetch at once
+     */
+    public PartitionStream(JavaRDDLike<?, ?> rdd, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Fetch parallelism must be positive, got " + parallelism);
+        }
+        this.rdd = rdd;
+        this.parallelism = parallelism;
+    }
+
+
+    @Override
+    public Object reduce(IFn rf) {
+        Fetcher elements = new Fetcher();
+        try {
+            if (!elements.hasNext()) {
+                return rf.invoke();
+            }
+            return reduce(elements, rf, elements.next());
+        } finally {
+            elements.close();
+        }
+    }
+
+
+    @Override
+    public Object reduce(IFn rf, Object init) {
+        Fetcher elements = new Fetcher();
+        try {
+            return reduce(elements, rf, init);
+        } finally {
+            elements.close();
+        }
+    }
+
+
+    /**
+     * Reduce the remaining elements of a fetcher.
+     */
+    private static Object reduce(Fetcher elements, IFn rf, Object init) {
+        Object acc = init;
+        while (elements.hasNext()) {
+            acc = rf.invoke(acc, elements.next());
+            if (RT.isReduced(acc)) {
+                return ((IDeref)acc).deref();
+            }
+        }
+        return acc;
+    }
+
+
+    @Override
+    public Iterator<Object> iterator() {
+        return new Fetcher();
+    }
+
+
+    /**
+     * Resources held by a traversal, kept separate from the fetcher so they
+     * can be released after it becomes unreachable.
+     */
+    private static final class Fetches implements Runnable {
+
+        private final SparkContext sc;
+        private final String jobGroup;
+        private final Deque<Future<List<?>>> inFlight = new ArrayDeque<Future<List<?>>>();
+        private ExecutorService pool;
+
+
+        Fetches(SparkContext sc) {
+            this.sc = sc;
+            this.jobGroup = "sparkplug-partition-stream-" + groupCounter.incrementAndGet();
+        }
+
+
+        /**
+         * Submit a job to collect one partition.
+         */
+        void submit(JavaRDDLike<?, ?> rdd, int partition, int threads) {
+            if (pool == null) {
+                pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "sparkplug-partition-fetch-" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            inFlight.add(pool.submit(() -> {
+                sc.setJobGroup(jobGroup, "Stream partition " + partition, true);
+                try {
+                    return rdd.collectPartitions(new int[] { partition })[0];
+                } finally {
+                    sc.clearJobGroup();
+                }
+            }));
+        }
+
+
+        /**
+         * Cancel any outstanding fetches and stop the fetch threads.
+         */
+        @Override
+        public void run() {
+            if (!inFlight.isEmpty()) {
+                for (Future<List<?>> future : inFlight) {
+                    future.cancel(true);
+                }
+                inFlight.clear();
+                if (!sc.isStopped()) {
+                    sc.cancelJobGroup(jobGroup);
+                }
+            }
+            if (pool != null) {
+                pool.shutdownNow();
+                pool = null;
+            }
+        }
+
+    }
+
+
+    /**
+     * Iterator which fetches partitions in the background, keeping a bounded
+     * number of them in flight ahead of the consumer. The partition being
+     * consumed counts against the limit.
+     */
+    private final class Fetcher implements Iterator<Object>, AutoCloseable {
+
+        private final int numPartitions = rdd.getNumPartitions();
+        private final Fetches fetches = new Fetches(rdd.context());
+        private final Cleaner.Cleanable cleanable = cleaner.register(this, fetches);
+        private int nextPartition = 0;
+        private Iterator<?> current = Collections.emptyIterator();
+
+
+        /**
+         * Submit jobs for the next partitions until the given number are in
+         * flight.
+         */
+        private void fill(int limit) {
+            while (fetches.inFlight.size() < limit && nextPartition < numPartitions) {
+                fetches.submit(rdd, nextPartition++, Math.min(parallelism, numPartitions));
+            }
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                // Release the finished partition before fetching more, so
+                // only the one about to be consumed is held.
+                current = Collections.emptyIterator();
+                fill(parallelism);
+                Future<List<?>> next = fetches.inFlight.poll();
+                if (next == null) {
+                    close();
+                    return false;
+                }
+                try {
+                    current = next.get().iterator();
+                } catch (InterruptedException ex) {
+                    close();
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while fetching RDD partitions", ex);
+                } catch (ExecutionException ex) {
+                    close();
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error)cause;
+                    }
+                    throw new RuntimeException("Error fetching RDD partition", cause);
+                }
+            }
+            return true;
+        }
+
+
+        @Override
+        public Object next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+
+        /**
+         * Cancel any outstanding fetches and stop the fetch threads.
+         */
+        @Override
+        public void close() {
+            nextPartition = numPartitions;
+            cleanable.clean();
+        }
+
+    }
+
+}
@@ -0,0 +1,207 @@
+package sparkplug.function;
+
+
+import clojure.lang.Keyword;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Utility to convert deserialized booleans in an object graph back into the
+ * canonical `Boolean.TRUE` and `Boolean.FALSE` instances.
+ *
+ * Java deserialization constructs new `Boolean` objects, which Clojure treats
+ * as truthy regardless of their value. The walk uses a field access plan
+ * computed once per class, which skips static fields, primitive fields, and
+ * fields whose declared type cannot hold nested values. Booleans held in
+ * object arrays are replaced in place.
+ */
+final class CanonicalBooleans {
+
+    private static final Logger logger = LoggerFactory.getLogger(CanonicalBooleans.class);
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    private static final FieldPlan[] EMPTY_PLAN = new FieldPlan[0];
+
+    private static final ClassValue<FieldPlan[]> plans = new ClassValue<FieldPlan[]>() {
+        @Override
+        protected FieldPlan[] computeValue(Class<?> cls) {
+            return buildPlan(cls);
+        }
+    };
+
+
+    private CanonicalBooleans() {
+    }
+
+
+    /**
+     * Access plan for a single field which may need fixing or traversal.
+     */
+    private static final class FieldPlan {
+
+        final Field field;
+        final MethodHandle getter;
+        final MethodHandle setter;
+
+        FieldPlan(Field field, MethodHandle getter, MethodHandle setter) {
+            this.field = field;
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+    }
+
+
+    /**
+     * Return the canonical instance for the given boolean value.
+     *
+     * @param value boolean object, possibly a non-canonical instance
+     * @return `Boolean.TRUE` or `Boolean.FALSE`
+     */
+    static Boolean canonical(Boolean value) {
+        return value.booleanValue() ? Boolean.TRUE : Boolean.FALSE;
+    }
+
+
+    /**
+     * Walk a value to convert any deserialized booleans back into the
+     * canonical java.lang.Boolean values.
+     *
+     * @param obj root object to walk
+     */
+    static void fix(Object obj) {
+        walk(Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>()), obj);
+    }
+
+
+    /**
+     * True if the value cannot have nested values to fix.
+     */
+    private static boolean isLeaf(Object obj) {
+        return (obj == null)
+            || (obj instanceof Boolean)
+            || (obj instanceof String)
+            || (obj instanceof Number)
+            || (obj instanceof Keyword)
+            || (obj instanceof Symbol)
+            || (obj instanceof Var);
+    }
+
+
+    /**
+     * True if a field with the given declared type can never refer to a
+     * value with nested booleans to fix.
+     */
+    private static boolean isLeafType(Class<?> type) {
+        return type.isPrimitive()
+            || (type == String.class)
+            || Number.class.isAssignableFrom(type)
+            || (type == Keyword.class)
+            || (type == Symbol.class)
+            || (type == Var.class);
+    }
+
+
+    /**
+     * Build the field access plan for a class.
+     */
+    private static FieldPlan[] buildPlan(Class<?> cls) {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        List<FieldPlan> plan = new ArrayList<FieldPlan>();
+        for (Field field : cls.getDeclaredFields()) {
+            Class<?> type = field.getType();
+            if (Modifier.isStatic(field.getModifiers()) || isLeafType(type)) {
+                continue;
+            }
+            try {
+                field.setAccessible(true);
+                MethodHandle getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+                MethodHandle setter = null;
+                if (type.isAssignableFrom(Boolean.class)) {
+                    setter = lookup.unreflectSetter(field).asType(SETTER_TYPE);
+                }
+                plan.add(new FieldPlan(field, getter, setter));
+            } catch (Exception ex) {
+                logger.trace("Failed to access field " + field.toString() + ": " + ex.getClass().getName());
+            }
+        }
+        return plan.isEmpty() ? EMPTY_PLAN : plan.toArray(EMPTY_PLAN);
+    }
+
+
+    /**
+     * Recursively walk an object, fixing boolean fields.
+     */
+    private static void walk(Set<Object> visited, Object obj) {
+        // Short-circuit objects which can't have nested values to fix, or
+        // which we've already visited.
+        if (isLeaf(obj) || !visited.add(obj)) {
+            return;
+        }
+
+        // Fix the elements of object arrays directly.
+        if (obj instanceof Object[]) {
+            Object[] array = (Object[])obj;
+            for (int i = 0; i < array.length; i++) {
+                Object el = array[i];
+                if (el instanceof Boolean) {
+                    array[i] = canonical((Boolean)el);
+                } else {
+                    walk(visited, el);
+                }
+            }
+            return;
+        }
+
+        // For collection-like objects, just traverse their elements.
+        if (obj instanceof Iterable) {
+            for (Object el : (Iterable)obj) {
+                walk(visited, el);
+            }
+            return;
+        }
+
+        // Otherwise, use the class plan to fix any booleans we find and
+        // traverse further.
+        for (FieldPlan plan : plans.get(obj.getClass())) {
+            Object value;
+            try {
+                value = (Object)plan.getter.invokeExact(obj);
+            } catch (Throwable ex) {
+                logger.trace("Failed to access field " + plan.field.toString() + ": " + ex.getClass().getName());
+                continue;
+            }
+            if (value instanceof Boolean) {
+                Boolean canonical = canonical((Boolean)value);
+                if (value != canonical && plan.setter != null) {
+                    try {
+                        plan.setter.invokeExact(obj, (Object)canonical);
+                    } catch (Throwable ex) {
+                        logger.warn("Failed to set boolean field " + plan.field.toString());
+                    }
+                }
+            } else {
+                walk(visited, value);
+            }
+        }
+    }
+
+}
@@ -9,6 +9,10 @@ import java.util.Comparator;
 
 /**
  * Compatibility wrapper for a `Comparator` of two arguments.
+ *
+ * Functions with a primitive `^long` return hint are called through their
+ * `IFn$OOL` interface, so the result is never boxed. Other functions may
+ * return any number; only its sign is used.
  */
 public class ComparatorFn extends SerializableFn implements Comparator<Object> {
 
@@ -18,9 +22,17 @@ public class ComparatorFn extends SerializableFn implements Comparator<Object> {
 
 
     @Override
-    @SuppressWarnings("unchecked")
     public int compare(Object v1, Object v2) {
-        return (int)f.invoke(v1, v2);
+        if (f instanceof IFn.OOL) {
+            return Long.signum(((IFn.OOL)f).invokePrim(v1, v2));
+        }
+        Object result = f.invoke(v1, v2);
+        if (result instanceof Integer) {
+            return ((Integer)result).intValue();
+        } else if (result instanceof Long) {
+            return Long.signum(((Long)result).longValue());
+        }
+        return (int)Math.signum(((Number)result).doubleValue());
     }
 
 }
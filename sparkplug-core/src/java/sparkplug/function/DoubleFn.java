@@ -0,0 +1,34 @@
+package sparkplug.function;
+
+
+import clojure.lang.IFn;
+import clojure.lang.RT;
+
+import java.util.Collection;
+
+import org.apache.spark.api.java.function.DoubleFunction;
+
+
+/**
+ * Compatibility wrapper for a Spark `DoubleFunction` of one argument.
+ *
+ * Functions with a primitive `^double` return hint are called through their
+ * `IFn$OD` interface, so the result is never boxed. Other functions may
+ * return any number, which is coerced to a double.
+ */
+public class DoubleFn extends SerializableFn implements DoubleFunction<Object> {
+
+    public DoubleFn(IFn f, Collection<String> namespaces) {
+        super(f, namespaces);
+    }
+
+
+    @Override
+    public double call(Object v1) throws Exception {
+        if (f instanceof IFn.OD) {
+            return ((IFn.OD)f).invokePrim(v1);
+        }
+        return RT.doubleCast(f.invoke(v1));
+    }
+
+}
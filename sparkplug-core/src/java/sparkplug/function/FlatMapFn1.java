@@ -20,10 +20,14 @@ public class FlatMapFn1 extends SerializableFn implements FlatMapFunction {
 
 
     @Override
-    @SuppressWarnings("unchecked")
+    protected IFn instrument(IFn fn, FnMetrics metrics) {
+        return new MeteredFn(fn, metrics, true);
+    }
+
+
+    @Override
     public Iterator<Object> call(Object v1) throws Exception {
-        Collection<Object> results = (Collection<Object>)f.invoke(v1);
-        return results.iterator();
+        return FlatMapResults.iterator(f.invoke(v1));
     }
 
 }
@@ -0,0 +1,75 @@
+package sparkplug.function;
+
+
+import clojure.lang.AFn;
+import clojure.lang.IReduceInit;
+import clojure.lang.RT;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+
+/**
+ * Utility to turn the results of a flat-map function into an iterator which
+ * Spark can consume incrementally.
+ *
+ * Iterators are used directly, and anything `RT.iter` understands (such as
+ * lazy seqs, eductions, and other `Iterable` values, maps, arrays, and `nil`)
+ * is iterated without realizing it first. Values which are only reducible
+ * cannot be paused part-way through, so they are reduced eagerly on the
+ * calling task thread into a buffer of at most `MAX_BUFFERED` elements; larger
+ * results are rejected, and should be returned as an eduction or other
+ * iterable value instead.
+ */
+final class FlatMapResults {
+
+    /**
+     * Maximum number of elements a reducible result may produce.
+     */
+    static final int MAX_BUFFERED = 1 << 16;
+
+
+    private FlatMapResults() {
+    }
+
+
+    /**
+     * Return an iterator over the results of a flat-map function.
+     *
+     * @param result collection, iterator, or reducible returned by the function
+     * @return iterator over the result elements
+     */
+    @SuppressWarnings("unchecked")
+    static Iterator<Object> iterator(Object result) {
+        if (result instanceof Iterator) {
+            return (Iterator<Object>)result;
+        } else if (result instanceof IReduceInit && !(result instanceof Iterable)) {
+            return reduce((IReduceInit)result).iterator();
+        } else {
+            return (Iterator<Object>)RT.iter(result);
+        }
+    }
+
+
+    /**
+     * Reduce a result into a buffer, failing if it produces too many
+     * elements.
+     */
+    private static ArrayList<Object> reduce(IReduceInit coll) {
+        final ArrayList<Object> buffer = new ArrayList<Object>();
+        coll.reduce(new AFn() {
+            @Override
+            public Object invoke(Object acc, Object x) {
+                if (buffer.size() == MAX_BUFFERED) {
+                    throw new IllegalStateException(
+                        "Flat-map function returned a reducible value with more than " + MAX_BUFFERED
+                        + " elements; return an eduction or other iterable value to stream large results");
+                }
+                buffer.add(x);
+                return acc;
+            }
+        }, null);
+        return buffer;
+    }
+
+}
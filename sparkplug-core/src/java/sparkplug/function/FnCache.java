@@ -0,0 +1,119 @@
+package sparkplug.function;
+
+
+import clojure.lang.IFn;
+
+import java.lang.ref.SoftReference;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Process-wide cache of deserialized functions, keyed by the digest of their
+ * serialized form.
+ *
+ * Entries are softly referenced, so a function stays cached between tasks
+ * even if no task currently holds it, but closures over large values can
+ * still be reclaimed when the executor runs short of memory. The cache is
+ * also bounded, evicting the least-recently used digests once it grows past
+ * its capacity.
+ */
+public final class FnCache {
+
+    /**
+     * Default maximum number of cached functions.
+     */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final Map<String, SoftReference<IFn>> cache = new LinkedHashMap<String, SoftReference<IFn>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SoftReference<IFn>> eldest) {
+            return size() > capacity;
+        }
+    };
+
+    private static volatile int capacity = DEFAULT_CAPACITY;
+
+
+    private FnCache() {
+    }
+
+
+    /**
+     * Set the maximum number of functions to keep in the cache.
+     *
+     * @param n new capacity for the cache
+     */
+    public static void setCapacity(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("Cache capacity must not be negative, got " + n);
+        }
+        synchronized (cache) {
+            capacity = n;
+            while (cache.size() > n) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+    }
+
+
+    /**
+     * Look up a previously deserialized function by its digest.
+     *
+     * @param digest content digest of the serialized function
+     * @return the cached function, or null if not present
+     */
+    public static IFn get(String digest) {
+        synchronized (cache) {
+            SoftReference<IFn> ref = cache.get(digest);
+            if (ref == null) {
+                return null;
+            }
+            IFn f = ref.get();
+            if (f == null) {
+                cache.remove(digest);
+            }
+            return f;
+        }
+    }
+
+
+    /**
+     * Store a deserialized function in the cache.
+     *
+     * @param digest content digest of the serialized function
+     * @param f deserialized function to cache
+     */
+    public static void put(String digest, IFn f) {
+        synchronized (cache) {
+            if (capacity > 0) {
+                cache.put(digest, new SoftReference<IFn>(f));
+            }
+        }
+    }
+
+
+    /**
+     * Return the number of entries currently in the cache. This may include
+     * entries whose functions have already been reclaimed.
+     *
+     * @return number of cached entries
+     */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+
+    /**
+     * Remove all entries from the cache.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+}
@@ -0,0 +1,161 @@
+package sparkplug.function;
+
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.spark.SparkContext;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.util.AccumulatorV2;
+
+
+/**
+ * Accumulator which collects execution statistics for wrapped functions,
+ * keyed by the demunged name of each function's class.
+ *
+ * When `spark.sparkplug.function.metrics.enabled` is set, the driver
+ * registers one of these with the active Spark context and writes it along
+ * with every serialized function. Executors wrap each deserialized function
+ * to record into the task's copy of the accumulator, and Spark merges the
+ * copies back on the driver as tasks finish. Executors also serialize the
+ * task's copy from the heartbeat thread while the task runs, so the map of
+ * statistics is only accessed while holding the accumulator's lock.
+ */
+public class FnMetrics extends AccumulatorV2<FnStats, Map<String, FnStats>> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Name the accumulator is registered under.
+     */
+    public static final String NAME = "sparkplug.function.metrics";
+
+    /**
+     * Executor id of the driver, from `SparkContext.DRIVER_IDENTIFIER`.
+     */
+    private static final String DRIVER_ID = "driver";
+
+    private static FnMetrics driverMetrics;
+    private static SparkContext driverContext;
+
+    private final Map<String, FnStats> stats = new HashMap<String, FnStats>();
+
+
+    /**
+     * Return the accumulator registered with the active Spark context in
+     * this driver, registering a new one if necessary.
+     *
+     * @return driver accumulator, or null if this JVM is not a driver with an
+     *         active context
+     */
+    static synchronized FnMetrics forDriver() {
+        SparkEnv env = SparkEnv.get();
+        if (env == null || !DRIVER_ID.equals(env.executorId())) {
+            return null;
+        }
+        SparkContext sc = SparkContext.getOrCreate();
+        if (driverMetrics == null || driverContext != sc) {
+            FnMetrics metrics = new FnMetrics();
+            sc.register(metrics, NAME);
+            driverMetrics = metrics;
+            driverContext = sc;
+        }
+        return driverMetrics;
+    }
+
+
+    /**
+     * Return the accumulator registered in this driver, if the active Spark
+     * context has serialized any functions with metrics enabled.
+     *
+     * @return driver accumulator, or null
+     */
+    public static synchronized FnMetrics active() {
+        if (driverContext == null || driverContext.isStopped()) {
+            return null;
+        }
+        return driverMetrics;
+    }
+
+
+    /**
+     * Return the statistics to record calls of the named function into,
+     * creating them if necessary.
+     *
+     * @param name function name
+     * @return statistics for the function
+     */
+    synchronized FnStats stats(String name) {
+        FnStats s = stats.get(name);
+        if (s == null) {
+            s = new FnStats(name);
+            stats.put(name, s);
+        }
+        return s;
+    }
+
+
+    @Override
+    public synchronized boolean isZero() {
+        return stats.isEmpty();
+    }
+
+
+    @Override
+    public synchronized AccumulatorV2<FnStats, Map<String, FnStats>> copy() {
+        FnMetrics copy = new FnMetrics();
+        for (FnStats s : stats.values()) {
+            copy.stats.put(s.name(), s.copy());
+        }
+        return copy;
+    }
+
+
+    @Override
+    public synchronized void reset() {
+        stats.clear();
+    }
+
+
+    @Override
+    public synchronized void add(FnStats other) {
+        stats(other.name()).merge(other);
+    }
+
+
+    @Override
+    public void merge(AccumulatorV2<FnStats, Map<String, FnStats>> other) {
+        if (!(other instanceof FnMetrics)) {
+            throw new UnsupportedOperationException(
+                "Cannot merge " + getClass().getName() + " with " + other.getClass().getName());
+        }
+        for (FnStats s : other.value().values()) {
+            add(s);
+        }
+    }
+
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
+
+    /**
+     * Return a snapshot of the statistics for each function.
+     *
+     * @return map of function names to copies of their statistics
+     */
+    @Override
+    public synchronized Map<String, FnStats> value() {
+        Map<String, FnStats> snapshot = new HashMap<String, FnStats>();
+        for (FnStats s : stats.values()) {
+            snapshot.put(s.name(), s.copy());
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+}
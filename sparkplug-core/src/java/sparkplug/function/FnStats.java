@@ -0,0 +1,260 @@
+package sparkplug.function;
+
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+
+/**
+ * Execution statistics for one wrapped function: the number of calls and
+ * errors, a histogram of call latencies, and the number of results produced
+ * by flat-map functions.
+ *
+ * Latencies are counted in log-linear buckets, with eight buckets for each
+ * power of two nanoseconds, so percentiles are accurate to within about six
+ * percent and histograms from different tasks merge exactly.
+ *
+ * Each task records into its own copy, but Spark may serialize that copy from
+ * the executor's heartbeat thread while the task is still running, so all
+ * access is synchronized, like Spark's `CollectionAccumulator`.
+ */
+public class FnStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of sub-buckets for each power of two, as a power of two.
+     */
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /**
+     * Latencies below this many nanoseconds get a bucket each.
+     */
+    private static final int LINEAR_LIMIT = 2 * SUB_COUNT;
+
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BITS - 1) * SUB_COUNT;
+
+    private final String name;
+    private long calls;
+    private long errors;
+    private long outputs;
+    private long totalNanos;
+    private long maxNanos;
+    private final long[] histogram;
+
+
+    /**
+     * Construct a new, empty set of statistics.
+     *
+     * @param name name of the function
+     */
+    public FnStats(String name) {
+        this.name = name;
+        this.histogram = new long[BUCKETS];
+    }
+
+
+    /**
+     * Return the name of the function these statistics are for.
+     *
+     * @return function name
+     */
+    public String name() {
+        return name;
+    }
+
+
+    // ## Recording
+
+    /**
+     * Map a latency to its histogram bucket.
+     */
+    static int bucket(long nanos) {
+        if (nanos < LINEAR_LIMIT) {
+            return (int)Math.max(nanos, 0L);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int)(nanos >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BITS - 1) * SUB_COUNT + sub;
+    }
+
+
+    /**
+     * Return the smallest latency which maps to a bucket.
+     */
+    static long bucketFloor(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int offset = bucket - LINEAR_LIMIT;
+        int exponent = offset / SUB_COUNT + SUB_BITS + 1;
+        long sub = offset % SUB_COUNT;
+        return (1L << exponent) + (sub << (exponent - SUB_BITS));
+    }
+
+
+    /**
+     * Record one call of the function.
+     *
+     * @param nanos time the call took
+     */
+    synchronized void recordCall(long nanos) {
+        calls++;
+        totalNanos += nanos;
+        if (maxNanos < nanos) {
+            maxNanos = nanos;
+        }
+        histogram[bucket(nanos)]++;
+    }
+
+
+    /**
+     * Record a call which threw an exception.
+     */
+    synchronized void recordError() {
+        errors++;
+    }
+
+
+    /**
+     * Record a result produced by a flat-map function.
+     */
+    synchronized void recordOutput() {
+        outputs++;
+    }
+
+
+    /**
+     * Add the statistics from another copy to these ones.
+     *
+     * @param other statistics to merge
+     */
+    void merge(FnStats other) {
+        FnStats snapshot = other.copy();
+        synchronized (this) {
+            add(snapshot);
+        }
+    }
+
+
+    /**
+     * Add the statistics from an unshared copy to these ones.
+     */
+    private void add(FnStats other) {
+        calls += other.calls;
+        errors += other.errors;
+        outputs += other.outputs;
+        totalNanos += other.totalNanos;
+        maxNanos = Math.max(maxNanos, other.maxNanos);
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] += other.histogram[i];
+        }
+    }
+
+
+    /**
+     * Return an independent copy of these statistics.
+     *
+     * @return copied statistics
+     */
+    synchronized FnStats copy() {
+        FnStats copy = new FnStats(name);
+        copy.add(this);
+        return copy;
+    }
+
+
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+    }
+
+
+    // ## Queries
+
+    /**
+     * Return the number of times the function was called.
+     *
+     * @return call count
+     */
+    public synchronized long calls() {
+        return calls;
+    }
+
+
+    /**
+     * Return the number of calls which threw an exception.
+     *
+     * @return error count
+     */
+    public synchronized long errors() {
+        return errors;
+    }
+
+
+    /**
+     * Return the number of results produced, for flat-map functions.
+     *
+     * @return output count
+     */
+    public synchronized long outputs() {
+        return outputs;
+    }
+
+
+    /**
+     * Return the total time spent in the function.
+     *
+     * @return cumulative latency in nanoseconds
+     */
+    public synchronized long totalNanos() {
+        return totalNanos;
+    }
+
+
+    /**
+     * Return the longest time a single call took.
+     *
+     * @return maximum latency in nanoseconds
+     */
+    public synchronized long maxNanos() {
+        return maxNanos;
+    }
+
+
+    /**
+     * Estimate a latency percentile from the histogram. The estimate is the
+     * midpoint of the bucket holding the requested rank, capped at the
+     * maximum latency seen.
+     *
+     * @param q quantile between 0.0 and 1.0
+     * @return estimated latency in nanoseconds, or 0 if there were no calls
+     */
+    public synchronized long percentileNanos(double q) {
+        if (q < 0.0 || 1.0 < q) {
+            throw new IllegalArgumentException("Quantile must be between 0.0 and 1.0, got " + q);
+        }
+        if (calls == 0) {
+            return 0L;
+        }
+        long rank = Math.max(1L, (long)Math.ceil(q * calls));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (rank <= seen) {
+                long floor = bucketFloor(i);
+                long ceiling = (i + 1 < BUCKETS) ? bucketFloor(i + 1) : Long.MAX_VALUE;
+                return Math.min(floor + (ceiling - floor) / 2, maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+
+    @Override
+    public String toString() {
+        return "FnStats[" + name + ", " + calls + " calls, " + errors + " errors]";
+    }
+
+}
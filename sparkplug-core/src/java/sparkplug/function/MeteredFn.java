@@ -0,0 +1,261 @@
+package sparkplug.function;
+
+
+import clojure.lang.AFn;
+import clojure.lang.Compiler;
+import clojure.lang.IFn;
+import clojure.lang.ISeq;
+
+import java.util.Iterator;
+
+
+/**
+ * Function which records the calls of a wrapped function into a task's copy
+ * of the function metrics accumulator.
+ *
+ * Every call is timed and counted, and calls which throw are counted as
+ * errors. For flat-map functions the results are counted as Spark consumes
+ * them; the recorded latency only covers the call itself, so work deferred to
+ * a lazy result is not included.
+ *
+ * Functions with a primitive `IFn$OD` or `IFn$OOL` interface, which
+ * `DoubleFn` and `ComparatorFn` call directly, are wrapped by a subclass
+ * that keeps the interface, so metering does not box their arguments or
+ * results.
+ */
+class MeteredFn extends AFn {
+
+    final IFn fn;
+    final FnMetrics metrics;
+    final FnStats stats;
+    private final boolean countOutputs;
+
+
+    /**
+     * Construct a new metered function.
+     *
+     * @param fn function to call
+     * @param metrics accumulator to record calls into
+     * @param countOutputs whether to count the results of a flat-map function
+     */
+    MeteredFn(IFn fn, FnMetrics metrics, boolean countOutputs) {
+        this.fn = fn;
+        this.metrics = metrics;
+        this.stats = metrics.stats(Compiler.demunge(fn.getClass().getName()));
+        this.countOutputs = countOutputs;
+    }
+
+
+    /**
+     * Construct a new metered function, keeping the primitive interface of
+     * `fn` if it has one sparkplug calls.
+     *
+     * @param fn function to call
+     * @param metrics accumulator to record calls into
+     * @param countOutputs whether to count the results of a flat-map function
+     * @return metered function
+     */
+    static MeteredFn create(IFn fn, FnMetrics metrics, boolean countOutputs) {
+        if (!countOutputs && fn instanceof IFn.OD) {
+            return new OD(fn, metrics);
+        } else if (!countOutputs && fn instanceof IFn.OOL) {
+            return new OOL(fn, metrics);
+        }
+        return new MeteredFn(fn, metrics, countOutputs);
+    }
+
+
+    /**
+     * Return the function to serialize in place of a possibly-metered one.
+     *
+     * @param f function which may be metered
+     * @return the underlying function
+     */
+    static IFn unwrap(IFn f) {
+        return (f instanceof MeteredFn) ? ((MeteredFn)f).fn : f;
+    }
+
+
+    /**
+     * Record the end of a successful call and pass the result on.
+     */
+    private Object result(long start, Object result) {
+        stats.recordCall(System.nanoTime() - start);
+        if (countOutputs) {
+            return new CountingIterator(FlatMapResults.iterator(result), stats);
+        }
+        return result;
+    }
+
+
+    /**
+     * Record the end of a call which threw an exception.
+     */
+    void failed(long start) {
+        stats.recordCall(System.nanoTime() - start);
+        stats.recordError();
+    }
+
+
+    @Override
+    public Object invoke() {
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = fn.invoke();
+        } catch (Throwable t) {
+            failed(start);
+            throw t;
+        }
+        return result(start, result);
+    }
+
+
+    @Override
+    public Object invoke(Object a) {
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = fn.invoke(a);
+        } catch (Throwable t) {
+            failed(start);
+            throw t;
+        }
+        return result(start, result);
+    }
+
+
+    @Override
+    public Object invoke(Object a, Object b) {
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = fn.invoke(a, b);
+        } catch (Throwable t) {
+            failed(start);
+            throw t;
+        }
+        return result(start, result);
+    }
+
+
+    @Override
+    public Object invoke(Object a, Object b, Object c) {
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = fn.invoke(a, b, c);
+        } catch (Throwable t) {
+            failed(start);
+            throw t;
+        }
+        return result(start, result);
+    }
+
+
+    @Override
+    public Object applyTo(ISeq args) {
+        long start = System.nanoTime();
+        Object result;
+        try {
+            result = fn.applyTo(args);
+        } catch (Throwable t) {
+            failed(start);
+            throw t;
+        }
+        return result(start, result);
+    }
+
+
+    @Override
+    public String toString() {
+        return "MeteredFn[" + fn + "]";
+    }
+
+
+    /**
+     * Metered function which keeps the primitive `IFn$OD` interface.
+     */
+    static final class OD extends MeteredFn implements IFn.OD {
+
+        OD(IFn fn, FnMetrics metrics) {
+            super(fn, metrics, false);
+        }
+
+
+        @Override
+        public double invokePrim(Object a) {
+            long start = System.nanoTime();
+            double result;
+            try {
+                result = ((IFn.OD)fn).invokePrim(a);
+            } catch (Throwable t) {
+                failed(start);
+                throw t;
+            }
+            stats.recordCall(System.nanoTime() - start);
+            return result;
+        }
+
+    }
+
+
+    /**
+     * Metered function which keeps the primitive `IFn$OOL` interface.
+     */
+    static final class OOL extends MeteredFn implements IFn.OOL {
+
+        OOL(IFn fn, FnMetrics metrics) {
+            super(fn, metrics, false);
+        }
+
+
+        @Override
+        public long invokePrim(Object a, Object b) {
+            long start = System.nanoTime();
+            long result;
+            try {
+                result = ((IFn.OOL)fn).invokePrim(a, b);
+            } catch (Throwable t) {
+                failed(start);
+                throw t;
+            }
+            stats.recordCall(System.nanoTime() - start);
+            return result;
+        }
+
+    }
+
+
+    /**
+     * Iterator which counts the results of a flat-map function as they are
+     * consumed.
+     */
+    private static final class CountingIterator implements Iterator<Object> {
+
+        private final Iterator<Object> results;
+        private final FnStats stats;
+
+
+        CountingIterator(Iterator<Object> results, FnStats stats) {
+            this.results = results;
+            this.stats = stats;
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            return results.hasNext();
+        }
+
+
+        @Override
+        public Object next() {
+            Object value = results.next();
+            stats.recordOutput();
+            return value;
+        }
+
+    }
+
+}
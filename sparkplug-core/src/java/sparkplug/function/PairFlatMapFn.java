@@ -23,10 +23,14 @@ public class PairFlatMapFn extends SerializableFn implements PairFlatMapFunction
 
 
     @Override
-    @SuppressWarnings("unchecked")
+    protected IFn instrument(IFn fn, FnMetrics metrics) {
+        return new MeteredFn(fn, metrics, true);
+    }
+
+
+    @Override
     public Iterator<Tuple2<Object, Object>> call(Object v1) throws Exception {
-        Collection<Object> result = (Collection<Object>)f.invoke(v1);
-        Iterator<Object> results = result.iterator();
+        Iterator<Object> results = FlatMapResults.iterator(f.invoke(v1));
         return new Iterator<Tuple2<Object, Object>>() {
             public boolean hasNext() {
                 return results.hasNext();
@@ -11,6 +11,8 @@ import org.apache.spark.api.java.function.PairFunction;
 
 import scala.Tuple2;
 
+import sparkplug.scala.Pair;
+
 
 /**
  * Compatibility wrapper for a Spark `PairFunction` of one argument which
@@ -32,6 +34,8 @@ public class PairFn extends SerializableFn implements PairFunction {
 
     /**
      * Coerce a result value into a Scala `Tuple2` as the result of a function.
+     * Tuples, including `Pair` values, are returned directly; map entries and
+     * vectors are converted to a `Pair`.
      *
      * @param f the function which produced the result, to report in error messages
      * @param result object to try to coerce
@@ -44,17 +48,17 @@ public class PairFn extends SerializableFn implements PairFunction {
         // Scala tuples can be returned directly.
         } else if (result instanceof Tuple2) {
             return (Tuple2<Object, Object>)result;
-        // Use key/value from Clojure map entries to construct a tuple.
+        // Use key/value from Clojure map entries to construct a pair.
         } else if (result instanceof IMapEntry) {
             IMapEntry entry = (IMapEntry)result;
-            return new Tuple2(entry.key(), entry.val());
+            return new Pair(entry.key(), entry.val());
         // Try to generically coerce a sequential result into a tuple.
         } else if (result instanceof IPersistentVector) {
             IPersistentVector vector = (IPersistentVector)result;
             if (vector.count() != 2) {
                 throw new RuntimeException("Wrapped pair function " + f + " returned a vector without exactly two values: " + vector.count());
             }
-            return new Tuple2(vector.nth(0), vector.nth(1));
+            return new Pair(vector.nth(0), vector.nth(1));
         // Unknown type, can't coerce.
         } else {
             throw new RuntimeException("Wrapped pair function " + f + " returned an invalid pair type: " + result.getClass().getName());
@@ -0,0 +1,56 @@
+package sparkplug.function;
+
+
+import clojure.lang.IFn;
+
+import java.util.Collection;
+
+
+/**
+ * Compatibility wrapper for a Clojure reducing function with init,
+ * completion, and step arities, like the functions passed to `transduce`.
+ *
+ * The wrapped function is called with no arguments to create a new
+ * accumulator, with an accumulator and an input to add the input to it, and
+ * with a single accumulator to complete it into a final value.
+ */
+public class ReducerFn extends SerializableFn {
+
+    public ReducerFn(IFn f, Collection<String> namespaces) {
+        super(f, namespaces);
+    }
+
+
+    /**
+     * Create a new accumulator.
+     *
+     * @return initial accumulator value
+     */
+    public Object init() {
+        return f.invoke();
+    }
+
+
+    /**
+     * Add an input to an accumulator.
+     *
+     * @param acc current accumulator
+     * @param x input value
+     * @return updated accumulator
+     */
+    public Object step(Object acc, Object x) {
+        return f.invoke(acc, x);
+    }
+
+
+    /**
+     * Complete an accumulator into its final value.
+     *
+     * @param acc accumulator
+     * @return completed value
+     */
+    public Object complete(Object acc) {
+        return f.invoke(acc);
+    }
+
+}
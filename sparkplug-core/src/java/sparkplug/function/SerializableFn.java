@@ -3,25 +3,36 @@ package sparkplug.function;
 
 import clojure.lang.Compiler;
 import clojure.lang.IFn;
-import clojure.lang.Keyword;
 import clojure.lang.RT;
 import clojure.lang.Symbol;
+import clojure.lang.Util;
 import clojure.lang.Var;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InvalidObjectException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
 import java.io.Serializable;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.spark.SparkEnv;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,12 +44,45 @@ import org.slf4j.LoggerFactory;
  * This class is designed to be serialized across computation boundaries in a
  * manner compatible with Spark and Kryo, while ensuring that required code is
  * loaded upon deserialization.
+ *
+ * When `spark.sparkplug.function.cache.enabled` is set, functions are written
+ * with a digest of their serialized form. Executors keep a bounded cache of
+ * functions by digest (see `FnCache`) so that repeated deserialization of the
+ * same function can skip reading the closure, loading namespaces, and walking
+ * the object graph. Cached functions are shared between tasks, so this should
+ * only be enabled when the wrapped closures hold no mutable state.
+ *
+ * When `spark.sparkplug.function.metrics.enabled` is set, the driver also
+ * writes its `FnMetrics` accumulator with each function, and executors wrap
+ * the deserialized function to record its calls. Otherwise, the function is
+ * called directly.
  */
 public abstract class SerializableFn implements Serializable {
 
     private static final Logger logger = LoggerFactory.getLogger(SerializableFn.class);
     private static final Var require = RT.var("clojure.core", "require");
 
+    /**
+     * Configuration key which enables digest-based function caching.
+     */
+    public static final String CACHE_ENABLED_KEY = "spark.sparkplug.function.cache.enabled";
+
+    /**
+     * Configuration key which sets the capacity of the function cache.
+     */
+    public static final String CACHE_CAPACITY_KEY = "spark.sparkplug.function.cache.capacity";
+
+    /**
+     * Configuration key which enables per-function execution metrics.
+     */
+    public static final String METRICS_ENABLED_KEY = "spark.sparkplug.function.metrics.enabled";
+
+    private static volatile boolean cacheConfigured = false;
+
+    private static final Set<String> loadedNamespaces = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong requireLockWaits = new AtomicLong();
+    private static final AtomicLong requireLockWaitNanos = new AtomicLong();
+
     protected IFn f;
     protected List<String> namespaces;
 
@@ -86,56 +130,90 @@ public abstract class SerializableFn implements Serializable {
 
 
     /**
-     * Walk a value to convert any deserialized booleans back into the
-     * canonical java.lang.Boolean values.
+     * Determine whether two wrapped functions compute the same thing. The
+     * wrappers must be the same class, and their functions must either be
+     * identical or be instances of the same function class whose closed-over
+     * values are all equal. Functions closing over other functions are only
+     * equal to themselves, since those are compared by identity.
      *
-     * @param visited Set of objects already visited by the walk
-     * @param obj Object to walk references of
-     */
-    private void fixBooleans(HashSet<Object> visited, Object obj) {
-        // Short-circuit objects which can't have nested values to fix.
-        if ((obj == null)
-                || (obj instanceof Boolean)
-                || (obj instanceof String)
-                || (obj instanceof Number)
-                || (obj instanceof Keyword)
-                || (obj instanceof Symbol)
-                || (obj instanceof Var)) {
-            return;
+     * @param a first wrapped function, or null
+     * @param b second wrapped function, or null
+     * @return true if the functions are equivalent
+     */
+    public static boolean sameFunction(SerializableFn a, SerializableFn b) {
+        if (a == b) {
+            return true;
+        } else if (a == null || b == null || a.getClass() != b.getClass()) {
+            return false;
+        } else if (a.f == b.f) {
+            return true;
+        } else if (a.f.getClass() != b.f.getClass()) {
+            return false;
         }
-
-        // Short-circuit if we've already visited this object.
-        if (visited.contains(obj)) {
-            return;
+        for (Field field : a.f.getClass().getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers())
+                    && !Util.equals(accessField(a.f, field), accessField(b.f, field))) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        visited.add(obj);
 
-        // For collection-like objects, just traverse their elements.
-        if (obj instanceof Iterable) {
-            for (Object el : (Iterable)obj) {
-                fixBooleans(visited, el);
-            }
-            return;
+    /**
+     * Compute a hash code consistent with `sameFunction`.
+     *
+     * @param fn wrapped function, or null
+     * @return hash of the function class
+     */
+    public static int functionHash(SerializableFn fn) {
+        return (fn == null) ? 0 : fn.f.getClass().getName().hashCode();
+    }
+
+
+    /**
+     * Look up a configuration value. Uses the active Spark configuration if
+     * there is one, falling back to JVM system properties otherwise.
+     *
+     * @param key configuration key to look up
+     * @param defaultValue value to return if the key is not set
+     * @return the configured value, or the default
+     */
+    protected static String getConf(String key, String defaultValue) {
+        SparkEnv env = SparkEnv.get();
+        if (env != null) {
+            return env.conf().get(key, defaultValue);
         }
+        return System.getProperty(key, defaultValue);
+    }
 
-        // Otherwise, look at the object's fields and try to fix any booleans
-        // we find and traverse further.
-        for (Field field : obj.getClass().getDeclaredFields()) {
-            if (!Modifier.isStatic(field.getModifiers())) {
-                Object value = accessField(obj, field);
-                if (value instanceof Boolean) {
-                    Boolean canonical = ((Boolean)value).booleanValue() ? Boolean.TRUE : Boolean.FALSE;
-                    try {
-                        field.set(obj, canonical);
-                    } catch (IllegalAccessException ex) {
-                        logger.warn("Failed to set boolean field " + field.toString());
-                    }
-                } else {
-                    fixBooleans(visited, value);
-                }
-            }
+
+    /**
+     * Wrap a deserialized function to record its calls into the given
+     * metrics accumulator. Subclasses override this to count the results of
+     * flat-map functions or to skip functions which aren't called per record.
+     *
+     * @param fn deserialized function
+     * @param metrics task's copy of the metrics accumulator
+     * @return function to call in place of `fn`
+     */
+    protected IFn instrument(IFn fn, FnMetrics metrics) {
+        return MeteredFn.create(fn, metrics, false);
+    }
+
+
+    /**
+     * Return the metrics accumulator to write with this function, if metrics
+     * are enabled.
+     */
+    private FnMetrics metricsForWrite() {
+        if (f instanceof MeteredFn) {
+            return ((MeteredFn)f).metrics;
         }
+        if (Boolean.parseBoolean(getConf(METRICS_ENABLED_KEY, "false"))) {
+            return FnMetrics.forDriver();
+        }
+        return null;
     }
 
 
@@ -146,6 +224,7 @@ public abstract class SerializableFn implements Serializable {
      * @param out stream to write the function to
      */
     private void writeObject(ObjectOutputStream out) throws IOException {
+        IFn f = MeteredFn.unwrap(this.f);
         try {
             logger.trace("Serializing " + f);
             // Write the function class name
@@ -156,8 +235,19 @@ public abstract class SerializableFn implements Serializable {
             for (String ns : namespaces) {
                 out.writeObject(ns);
             }
-            // Write out the function itself.
-            out.writeObject(f);
+            // Write out the function itself, optionally with a digest.
+            if (Boolean.parseBoolean(getConf(CACHE_ENABLED_KEY, "false"))) {
+                byte[] fnBytes = serializeFn(f);
+                out.writeBoolean(true);
+                out.writeUTF(digest(fnBytes));
+                out.writeInt(fnBytes.length);
+                out.write(fnBytes);
+            } else {
+                out.writeBoolean(false);
+                out.writeObject(f);
+            }
+            // Write out the metrics accumulator, if enabled.
+            out.writeObject(metricsForWrite());
         } catch (IOException ex) {
             logger.error("Error serializing function " + f, ex);
             throw ex;
@@ -180,18 +270,43 @@ public abstract class SerializableFn implements Serializable {
             // Read the function class name.
             className = (String)in.readObject();
             logger.trace("Deserializing " + className);
-            // Read the referenced namespaces and load them.
+            // Read the referenced namespaces.
             int nsCount = in.readInt();
             this.namespaces = new ArrayList<String>(nsCount);
             for (int i = 0; i < nsCount; i++) {
                 String ns = (String)in.readObject();
                 namespaces.add(ns);
-                requireNamespace(ns);
             }
-            // Read the function itself.
-            this.f = (IFn)in.readObject();
-            // Walk the data structure to coerce canonical booleans.
-            fixBooleans(new HashSet<Object>(), this.f);
+            if (in.readBoolean()) {
+                // Read the digest and serialized function bytes.
+                String digest = in.readUTF();
+                byte[] fnBytes = new byte[in.readInt()];
+                in.readFully(fnBytes);
+                // Check for a previously deserialized copy.
+                configureCache();
+                IFn cached = FnCache.get(digest);
+                if (cached != null) {
+                    logger.trace("Using cached function " + className + " with digest " + digest);
+                    this.f = cached;
+                } else {
+                    // The nested stream canonicalizes booleans as they are
+                    // read, so there's no need to walk the result.
+                    requireNamespaces();
+                    this.f = deserializeFn(fnBytes);
+                    FnCache.put(digest, this.f);
+                }
+            } else {
+                // Load namespaces and read the function itself.
+                requireNamespaces();
+                this.f = (IFn)in.readObject();
+                // Walk the data structure to coerce canonical booleans.
+                CanonicalBooleans.fix(this.f);
+            }
+            // Read the metrics accumulator and wrap the function to use it.
+            FnMetrics metrics = (FnMetrics)in.readObject();
+            if (metrics != null) {
+                this.f = instrument(this.f, metrics);
+            }
         } catch (IOException ex) {
             logger.error("IO error deserializing function " + className, ex);
             throw ex;
@@ -205,21 +320,159 @@ public abstract class SerializableFn implements Serializable {
     }
 
 
+    /**
+     * Serialize a function into a standalone byte array.
+     *
+     * @param fn function to serialize
+     * @return serialized bytes
+     */
+    private static byte[] serializeFn(IFn fn) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(baos)) {
+            out.writeObject(fn);
+        }
+        return baos.toByteArray();
+    }
+
+
+    /**
+     * Deserialize a function from a standalone byte array. Classes are
+     * resolved with the thread context classloader, which is how Spark
+     * exposes user code on executors. Booleans are replaced with their
+     * canonical instances as the stream resolves them.
+     *
+     * @param fnBytes serialized function bytes
+     * @return deserialized function
+     */
+    private static IFn deserializeFn(byte[] fnBytes) throws IOException, ClassNotFoundException {
+        InputStream bytesIn = new ByteArrayInputStream(fnBytes);
+        try (ObjectInputStream in = new ObjectInputStream(bytesIn) {
+                {
+                    enableResolveObject(true);
+                }
+
+                @Override
+                protected Object resolveObject(Object obj) {
+                    if (obj instanceof Boolean) {
+                        return CanonicalBooleans.canonical((Boolean)obj);
+                    }
+                    return obj;
+                }
+
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                    ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                    if (loader != null) {
+                        try {
+                            return Class.forName(desc.getName(), false, loader);
+                        } catch (ClassNotFoundException ex) {
+                            // Fall back to default resolution.
+                        }
+                    }
+                    return super.resolveClass(desc);
+                }
+            }) {
+            return (IFn)in.readObject();
+        }
+    }
+
+
+    /**
+     * Compute a hex-encoded SHA-256 digest of the given bytes.
+     *
+     * @param data bytes to digest
+     * @return digest string
+     */
+    private static String digest(byte[] data) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder sb = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 digest algorithm is not available", ex);
+        }
+    }
+
+
+    /**
+     * Configure the capacity of the function cache from the Spark
+     * configuration the first time it is used.
+     */
+    private static void configureCache() {
+        if (!cacheConfigured) {
+            String capacity = getConf(CACHE_CAPACITY_KEY, null);
+            if (capacity != null) {
+                FnCache.setCapacity(Integer.parseInt(capacity));
+            }
+            cacheConfigured = true;
+        }
+    }
+
+
+    /**
+     * Load all of the namespaces required by this function.
+     */
+    private void requireNamespaces() {
+        for (String ns : namespaces) {
+            requireNamespace(ns);
+        }
+    }
+
+
     /**
      * Load the namespace specified by the given symbol.
      *
+     * Namespaces which have already been loaded by this class are tracked in
+     * a concurrent set, so only the first load of each namespace needs to
+     * take the global require lock.
+     *
      * @param namespace string designating the namespace to load
      */
     private static void requireNamespace(String namespace) {
+        if (loadedNamespaces.contains(namespace)) {
+            return;
+        }
         try {
-            logger.trace("(require " + namespace + ")");
+            long start = System.nanoTime();
             synchronized (RT.REQUIRE_LOCK) {
-                Symbol sym = Symbol.intern(namespace);
-                require.invoke(sym);
+                requireLockWaits.incrementAndGet();
+                requireLockWaitNanos.addAndGet(System.nanoTime() - start);
+                if (!loadedNamespaces.contains(namespace)) {
+                    logger.trace("(require " + namespace + ")");
+                    Symbol sym = Symbol.intern(namespace);
+                    require.invoke(sym);
+                    loadedNamespaces.add(namespace);
+                }
             }
         } catch (Exception ex) {
             logger.warn("Error loading namespace " + namespace, ex);
         }
     }
 
+
+    /**
+     * Return the number of times a function deserialization had to acquire
+     * the global require lock in this JVM.
+     *
+     * @return count of lock acquisitions
+     */
+    public static long getRequireLockWaits() {
+        return requireLockWaits.get();
+    }
+
+
+    /**
+     * Return the total time spent waiting to acquire the global require lock
+     * during function deserialization in this JVM.
+     *
+     * @return cumulative wait time in nanoseconds
+     */
+    public static long getRequireLockWaitNanos() {
+        return requireLockWaitNanos.get();
+    }
+
 }
@@ -0,0 +1,45 @@
+package sparkplug.function;
+
+
+import clojure.lang.IFn;
+import clojure.lang.TransformerIterator;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.apache.spark.api.java.function.FlatMapFunction;
+
+
+/**
+ * Compatibility wrapper for a Spark `FlatMapFunction` which applies a
+ * transducer to the iterator of each partition.
+ *
+ * The wrapped function is the transducer itself. Results are pulled through
+ * it lazily as Spark consumes them, and a step returning `reduced` stops
+ * reading the rest of the partition.
+ */
+public class TransducerFn extends SerializableFn implements FlatMapFunction<Iterator<Object>, Object> {
+
+    public TransducerFn(IFn f, Collection<String> namespaces) {
+        super(f, namespaces);
+    }
+
+
+    /**
+     * Transducers are only called to build the reducing function for each
+     * partition, so they are not metered.
+     */
+    @Override
+    protected IFn instrument(IFn fn, FnMetrics metrics) {
+        return fn;
+    }
+
+
+    @Override
+    // TransformerIterator.create returns a raw Iterator of transduced values.
+    @SuppressWarnings("unchecked")
+    public Iterator<Object> call(Iterator<Object> v1) throws Exception {
+        return TransformerIterator.create(f, v1);
+    }
+
+}
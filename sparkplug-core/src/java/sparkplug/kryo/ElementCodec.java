@@ -0,0 +1,117 @@
+package sparkplug.kryo;
+
+
+import clojure.lang.Keyword;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+
+/**
+ * Encoding for the elements of a collection.
+ *
+ * When every element of a collection (or every key or value of a map) has the
+ * same simple type, the collection is written with a single type tag followed
+ * by the packed values, instead of a class ID per element. Longs are written
+ * as zigzag varints and doubles as raw 8-byte values.
+ */
+final class ElementCodec {
+
+    static final int UNSET = -1;
+    static final int GENERIC = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int STRING = 3;
+    static final int KEYWORD = 4;
+
+
+    private ElementCodec() {
+    }
+
+
+    /**
+     * Return the type tag for a single value.
+     */
+    static int tagOf(Object x) {
+        if (x == null) {
+            return GENERIC;
+        }
+        Class<?> c = x.getClass();
+        if (c == Long.class) {
+            return LONG;
+        } else if (c == Double.class) {
+            return DOUBLE;
+        } else if (c == String.class) {
+            return STRING;
+        } else if (c == Keyword.class) {
+            return KEYWORD;
+        } else {
+            return GENERIC;
+        }
+    }
+
+
+    /**
+     * Update the type tag seen so far with another value. Once the tag is
+     * `GENERIC` it stays that way, so callers can stop scanning.
+     */
+    static int merge(int tag, Object x) {
+        if (tag == GENERIC) {
+            return GENERIC;
+        }
+        int t = tagOf(x);
+        return (tag == UNSET || tag == t) ? t : GENERIC;
+    }
+
+
+    /**
+     * Resolve the final tag to write after scanning all values.
+     */
+    static int finish(int tag) {
+        return (tag == UNSET) ? GENERIC : tag;
+    }
+
+
+    /**
+     * Write a single value using the given type tag.
+     */
+    static void write(Kryo kryo, Output output, int tag, Object x) {
+        switch (tag) {
+            case LONG:
+                output.writeVarLong(((Long)x).longValue(), false);
+                break;
+            case DOUBLE:
+                output.writeDouble(((Double)x).doubleValue());
+                break;
+            case STRING:
+                output.writeString((String)x);
+                break;
+            case KEYWORD:
+                kryo.writeObject(output, x);
+                break;
+            default:
+                kryo.writeClassAndObject(output, x);
+        }
+    }
+
+
+    /**
+     * Read a single value using the given type tag.
+     */
+    static Object read(Kryo kryo, Input input, int tag) {
+        switch (tag) {
+            case LONG:
+                return input.readVarLong(false);
+            case DOUBLE:
+                return input.readDouble();
+            case STRING:
+                return input.readString();
+            case KEYWORD:
+                return kryo.readObject(input, Keyword.class);
+            default:
+                return kryo.readClassAndObject(input);
+        }
+    }
+
+}
@@ -0,0 +1,210 @@
+package sparkplug.kryo;
+
+
+import clojure.lang.Keyword;
+import clojure.lang.Named;
+import clojure.lang.Symbol;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.util.ObjectMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Kryo serializer for Clojure keywords and symbols.
+ *
+ * Well-known idents are written as a null string marker followed by a
+ * varint code. Other idents are written as their string form the first time
+ * they appear, and when reference tracking is off, later occurrences are
+ * written as back-references to a table kept in the Kryo graph context:
+ *
+ * - odd values `2i + 1` refer back to entry `i` in the table.
+ * - even values `2j` refer to well-known ident `j`.
+ *
+ * Kryo resets the graph context after each top-level object, so the table
+ * only spans one object graph, not a whole stream; records written one at a
+ * time to a Spark serialization stream each start with an empty table. When
+ * reference tracking is on, Kryo already deduplicates repeated idents within
+ * a graph, so the table is not used at all. Both sides of a stream must agree
+ * on reference tracking, as Kryo already requires.
+ *
+ * Well-known idents are registered process-wide from `intern` registry
+ * actions, so their IDs match on every JVM loading the same registries.
+ */
+public class IdentSerializer extends Serializer<Named> {
+
+    private static final Object WRITE_TABLE = new Object();
+    private static final Object READ_TABLE = new Object();
+
+    /**
+     * Maximum number of entries to keep in the keyword read cache.
+     */
+    private static final int CACHE_LIMIT = 4096;
+
+    private static final Object lock = new Object();
+    private static volatile Object[] wellKnown = new Object[0];
+    private static volatile Map<Object, Integer> wellKnownIds = Collections.emptyMap();
+
+    private final Map<String, Keyword> keywordCache = new HashMap<String, Keyword>();
+
+
+    public IdentSerializer() {
+        super(false, true);
+    }
+
+
+    /**
+     * Register a keyword or symbol as a well-known ident with a fixed ID. IDs
+     * are assigned in registration order, and registering an ident again has
+     * no effect.
+     *
+     * @param ident keyword or symbol to register
+     */
+    public static void registerWellKnown(Named ident) {
+        if (!(ident instanceof Keyword || ident instanceof Symbol)) {
+            throw new IllegalArgumentException("Well-known idents must be keywords or symbols, got " + ident);
+        }
+        synchronized (lock) {
+            if (wellKnownIds.containsKey(ident)) {
+                return;
+            }
+            Object[] idents = Arrays.copyOf(wellKnown, wellKnown.length + 1);
+            idents[wellKnown.length] = ident;
+            Map<Object, Integer> ids = new HashMap<Object, Integer>(wellKnownIds);
+            ids.put(ident, wellKnown.length);
+            wellKnown = idents;
+            wellKnownIds = ids;
+        }
+    }
+
+
+    /**
+     * Return the registered well-known idents in ID order.
+     *
+     * @return list of keywords and symbols
+     */
+    public static List<Object> wellKnownIdents() {
+        return Collections.unmodifiableList(Arrays.asList(wellKnown));
+    }
+
+
+    /**
+     * Look up a well-known ident by ID.
+     */
+    private static Named wellKnown(int id) {
+        Object[] idents = wellKnown;
+        if (idents.length <= id) {
+            throw new KryoException("Unknown well-known ident id " + id + "; registries may differ between JVMs");
+        }
+        return (Named)idents[id];
+    }
+
+
+    /**
+     * Return the string form of an ident, without a leading colon.
+     */
+    private static String identString(Named value) {
+        if (value instanceof Keyword) {
+            return ((Keyword)value).sym.toString();
+        }
+        return value.toString();
+    }
+
+
+    /**
+     * Resolve a keyword by name, using a local cache to avoid contending on
+     * the global intern table.
+     */
+    private Keyword keyword(String name) {
+        Keyword kw = keywordCache.get(name);
+        if (kw == null) {
+            kw = Keyword.intern(Symbol.intern(name));
+            if (keywordCache.size() >= CACHE_LIMIT) {
+                keywordCache.clear();
+            }
+            keywordCache.put(name, kw);
+        }
+        return kw;
+    }
+
+
+    /**
+     * Resolve an ident of the given type by name.
+     */
+    private Named ident(String name, Class<Named> type) {
+        return Keyword.class.equals(type) ? keyword(name) : Symbol.intern(name);
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void write(Kryo kryo, Output output, Named value) {
+        Integer fixed = wellKnownIds.get(value);
+        if (fixed != null) {
+            output.writeString(null);
+            output.writeVarInt(2 * fixed.intValue(), true);
+            return;
+        }
+        if (kryo.getReferences()) {
+            output.writeString(identString(value));
+            return;
+        }
+        ObjectMap<Object, Object> context = kryo.getGraphContext();
+        Map<Object, Integer> table = (Map<Object, Integer>)context.get(WRITE_TABLE);
+        if (table == null) {
+            table = new HashMap<Object, Integer>();
+            context.put(WRITE_TABLE, table);
+        }
+        Integer index = table.get(value);
+        if (index != null) {
+            output.writeString(null);
+            output.writeVarInt(2 * index.intValue() + 1, true);
+            return;
+        }
+        table.put(value, table.size());
+        output.writeString(identString(value));
+    }
+
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Named read(Kryo kryo, Input input, Class<Named> type) {
+        String name = input.readString();
+        int code = 0;
+        if (name == null) {
+            code = input.readVarInt(true);
+            if ((code & 1) == 0) {
+                return wellKnown(code >>> 1);
+            }
+        }
+        if (kryo.getReferences()) {
+            if (name == null) {
+                throw new KryoException("Unexpected ident back-reference " + code + " with reference tracking enabled");
+            }
+            return ident(name, type);
+        }
+        ObjectMap<Object, Object> context = kryo.getGraphContext();
+        List<Named> table = (List<Named>)context.get(READ_TABLE);
+        if (table == null) {
+            table = new ArrayList<Named>();
+            context.put(READ_TABLE, table);
+        }
+        if (name == null) {
+            return table.get(code >>> 1);
+        }
+        Named ident = ident(name, type);
+        table.add(ident);
+        return ident;
+    }
+
+}
@@ -0,0 +1,38 @@
+package sparkplug.kryo;
+
+
+import clojure.lang.IMapEntry;
+import clojure.lang.MapEntry;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+
+/**
+ * Kryo serializer for Clojure map entries, written as a key and a value with
+ * no length prefix.
+ */
+public class MapEntrySerializer extends Serializer<IMapEntry> {
+
+    public MapEntrySerializer() {
+        super(false, true);
+    }
+
+
+    @Override
+    public void write(Kryo kryo, Output output, IMapEntry entry) {
+        kryo.writeClassAndObject(output, entry.key());
+        kryo.writeClassAndObject(output, entry.val());
+    }
+
+
+    @Override
+    public IMapEntry read(Kryo kryo, Input input, Class<IMapEntry> type) {
+        Object k = kryo.readClassAndObject(input);
+        Object v = kryo.readClassAndObject(input);
+        return MapEntry.create(k, v);
+    }
+
+}
@@ -0,0 +1,317 @@
+package sparkplug.kryo;
+
+
+import clojure.lang.AFn;
+import clojure.lang.IKVReduce;
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientMap;
+import clojure.lang.PersistentArrayMap;
+import clojure.lang.PersistentHashMap;
+import clojure.lang.PersistentHashSet;
+import clojure.lang.Reduced;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Kryo serializer for unordered Clojure maps.
+ *
+ * Maps are written with `IKVReduce` where possible to avoid allocating an
+ * entry per key/value pair. Keys and values each use a packed encoding when
+ * they share a simple type, such as maps with all keyword keys. Small maps are
+ * read directly into the backing array of a `PersistentArrayMap`, and larger
+ * maps into a transient hash map.
+ *
+ * Maps whose key set exactly matches a registered schema are written as the
+ * schema ID followed by the values in schema key order, omitting the keys.
+ * Schemas are registered process-wide from `schema` registry actions, so
+ * their IDs match on every JVM loading the same registries. The varint header
+ * of each map is `2n` for a plain map with `n` entries, or `2i + 1` for a map
+ * matching schema `i`.
+ */
+public class MapSerializer extends Serializer<IPersistentMap> {
+
+    /**
+     * Maximum number of entries to read into an array map.
+     */
+    static final int ARRAY_MAP_ENTRIES = 8;
+
+    private static final Schema[] NO_SCHEMAS = new Schema[0];
+
+    private static final Object lock = new Object();
+    private static volatile Schema[] schemas = NO_SCHEMAS;
+    private static volatile Schema[][] schemasBySize = new Schema[0][];
+    private static Map<Object, Schema> schemasByKeySet = new HashMap<Object, Schema>();
+
+
+    public MapSerializer() {
+        super(false, true);
+    }
+
+
+    /**
+     * Fixed set of map keys, written in a stable order.
+     */
+    private static final class Schema {
+
+        final int id;
+        final Object[] keys;
+
+        Schema(int id, Object[] keys) {
+            this.id = id;
+            this.keys = keys;
+        }
+
+
+        /**
+         * True if the map has exactly the keys in this schema.
+         */
+        boolean matches(IPersistentMap coll) {
+            for (Object k : keys) {
+                if (!coll.containsKey(k)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+
+    /**
+     * Register a map schema with a fixed ID. IDs are assigned in registration
+     * order. Registering a key set again, in any order, returns the existing
+     * schema's ID.
+     *
+     * @param keys distinct map keys in the order values should be written
+     * @return ID of the registered schema
+     */
+    public static int registerSchema(Object... keys) {
+        if (keys.length == 0) {
+            throw new IllegalArgumentException("Map schemas must have at least one key");
+        }
+        Object keySet = PersistentHashSet.createWithCheck(keys);
+        synchronized (lock) {
+            Schema existing = schemasByKeySet.get(keySet);
+            if (existing != null) {
+                return existing.id;
+            }
+            Schema schema = new Schema(schemas.length, keys.clone());
+            Schema[] all = Arrays.copyOf(schemas, schemas.length + 1);
+            all[schema.id] = schema;
+            Schema[][] bySize = Arrays.copyOf(schemasBySize, Math.max(schemasBySize.length, keys.length + 1));
+            Schema[] sized = (bySize[keys.length] == null) ? NO_SCHEMAS : bySize[keys.length];
+            sized = Arrays.copyOf(sized, sized.length + 1);
+            sized[sized.length - 1] = schema;
+            bySize[keys.length] = sized;
+            schemasByKeySet.put(keySet, schema);
+            schemas = all;
+            schemasBySize = bySize;
+            return schema.id;
+        }
+    }
+
+
+    /**
+     * Return the keys of each registered schema in ID order.
+     *
+     * @return list of key lists
+     */
+    public static List<List<Object>> schemaKeys() {
+        Schema[] all = schemas;
+        List<List<Object>> keys = new ArrayList<List<Object>>(all.length);
+        for (Schema schema : all) {
+            keys.add(Collections.unmodifiableList(Arrays.asList(schema.keys)));
+        }
+        return Collections.unmodifiableList(keys);
+    }
+
+
+    /**
+     * Find the registered schema matching a map's keys, if any.
+     */
+    private static Schema findSchema(IPersistentMap coll, int n) {
+        Schema[][] bySize = schemasBySize;
+        if (bySize.length <= n || bySize[n] == null) {
+            return null;
+        }
+        for (Schema schema : bySize[n]) {
+            if (schema.matches(coll)) {
+                return schema;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Reducing function which determines the key and value type tags.
+     */
+    private static final class TagScanner extends AFn {
+
+        int keyTag = ElementCodec.UNSET;
+        int valTag = ElementCodec.UNSET;
+
+        @Override
+        public Object invoke(Object acc, Object k, Object v) {
+            keyTag = ElementCodec.merge(keyTag, k);
+            valTag = ElementCodec.merge(valTag, v);
+            if (keyTag == ElementCodec.GENERIC && valTag == ElementCodec.GENERIC) {
+                return new Reduced(acc);
+            }
+            return acc;
+        }
+
+    }
+
+
+    /**
+     * Reducing function which writes each key and value to the output.
+     */
+    private static final class EntryWriter extends AFn {
+
+        private final Kryo kryo;
+        private final Output output;
+        private final int keyTag;
+        private final int valTag;
+
+        EntryWriter(Kryo kryo, Output output, int keyTag, int valTag) {
+            this.kryo = kryo;
+            this.output = output;
+            this.keyTag = keyTag;
+            this.valTag = valTag;
+        }
+
+        @Override
+        public Object invoke(Object acc, Object k, Object v) {
+            ElementCodec.write(kryo, output, keyTag, k);
+            ElementCodec.write(kryo, output, valTag, v);
+            return acc;
+        }
+
+    }
+
+
+    /**
+     * Write the values of a map matching a schema, in schema key order.
+     */
+    private static void writeSchemaValues(Kryo kryo, Output output, Schema schema, IPersistentMap coll) {
+        Object[] keys = schema.keys;
+        Object[] vals = new Object[keys.length];
+        int valTag = ElementCodec.UNSET;
+        for (int i = 0; i < keys.length; i++) {
+            vals[i] = coll.valAt(keys[i]);
+            valTag = ElementCodec.merge(valTag, vals[i]);
+        }
+        valTag = ElementCodec.finish(valTag);
+        output.writeByte(valTag);
+        for (Object v : vals) {
+            ElementCodec.write(kryo, output, valTag, v);
+        }
+    }
+
+
+    /**
+     * Read the values of a map matching a schema, in schema key order.
+     */
+    private static IPersistentMap readSchemaValues(Kryo kryo, Input input, Schema schema) {
+        Object[] keys = schema.keys;
+        int valTag = input.readByte();
+        Object[] kvs = new Object[2 * keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            kvs[2 * i] = keys[i];
+            kvs[2 * i + 1] = ElementCodec.read(kryo, input, valTag);
+        }
+        if (keys.length <= ARRAY_MAP_ENTRIES) {
+            return new PersistentArrayMap(kvs);
+        }
+        return PersistentHashMap.create(kvs);
+    }
+
+
+    @Override
+    public void write(Kryo kryo, Output output, IPersistentMap coll) {
+        int n = coll.count();
+        Schema schema = findSchema(coll, n);
+        if (schema != null) {
+            output.writeVarInt(2 * schema.id + 1, true);
+            writeSchemaValues(kryo, output, schema, coll);
+            return;
+        }
+        output.writeVarInt(2 * n, true);
+        if (n == 0) {
+            return;
+        }
+        TagScanner scanner = new TagScanner();
+        if (coll instanceof IKVReduce) {
+            ((IKVReduce)coll).kvreduce(scanner, null);
+        } else {
+            for (Object el : coll) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>)el;
+                if (scanner.invoke(null, entry.getKey(), entry.getValue()) instanceof Reduced) {
+                    break;
+                }
+            }
+        }
+        int keyTag = ElementCodec.finish(scanner.keyTag);
+        int valTag = ElementCodec.finish(scanner.valTag);
+        output.writeByte(keyTag);
+        output.writeByte(valTag);
+        EntryWriter writer = new EntryWriter(kryo, output, keyTag, valTag);
+        if (coll instanceof IKVReduce) {
+            ((IKVReduce)coll).kvreduce(writer, null);
+        } else {
+            for (Object el : coll) {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>)el;
+                writer.invoke(null, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+
+    @Override
+    public IPersistentMap read(Kryo kryo, Input input, Class<IPersistentMap> type) {
+        int header = input.readVarInt(true);
+        if ((header & 1) == 1) {
+            int id = header >>> 1;
+            Schema[] all = schemas;
+            if (all.length <= id) {
+                throw new KryoException("Unknown map schema id " + id + "; registries may differ between JVMs");
+            }
+            return readSchemaValues(kryo, input, all[id]);
+        }
+        int n = header >>> 1;
+        if (n == 0) {
+            return PersistentArrayMap.EMPTY;
+        }
+        int keyTag = input.readByte();
+        int valTag = input.readByte();
+        if (n <= ARRAY_MAP_ENTRIES) {
+            Object[] kvs = new Object[2 * n];
+            for (int i = 0; i < kvs.length; i += 2) {
+                kvs[i] = ElementCodec.read(kryo, input, keyTag);
+                kvs[i + 1] = ElementCodec.read(kryo, input, valTag);
+            }
+            return new PersistentArrayMap(kvs);
+        }
+        ITransientMap result = PersistentHashMap.EMPTY.asTransient();
+        for (int i = 0; i < n; i++) {
+            Object k = ElementCodec.read(kryo, input, keyTag);
+            Object v = ElementCodec.read(kryo, input, valTag);
+            result = result.assoc(k, v);
+        }
+        return result.persistent();
+    }
+
+}
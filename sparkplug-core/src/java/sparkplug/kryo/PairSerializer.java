@@ -0,0 +1,37 @@
+package sparkplug.kryo;
+
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import sparkplug.scala.Pair;
+
+
+/**
+ * Kryo serializer for sparkplug pairs, written as a key and a value with no
+ * length prefix.
+ */
+public class PairSerializer extends Serializer<Pair> {
+
+    public PairSerializer() {
+        super(false, true);
+    }
+
+
+    @Override
+    public void write(Kryo kryo, Output output, Pair pair) {
+        kryo.writeClassAndObject(output, pair._1());
+        kryo.writeClassAndObject(output, pair._2());
+    }
+
+
+    @Override
+    public Pair read(Kryo kryo, Input input, Class<Pair> type) {
+        Object k = kryo.readClassAndObject(input);
+        Object v = kryo.readClassAndObject(input);
+        return new Pair(k, v);
+    }
+
+}
@@ -0,0 +1,235 @@
+package sparkplug.kryo;
+
+
+import clojure.core.Vec;
+import clojure.core.VecNode;
+import clojure.lang.IFn;
+import clojure.lang.Keyword;
+import clojure.lang.RT;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.lang.reflect.Array;
+
+
+/**
+ * Kryo serializer for Clojure primitive vectors created with `vector-of`.
+ *
+ * The vector is written as its primitive type, a count, and the packed
+ * values, without boxing each element or writing class IDs. Integral values
+ * are written as zigzag varints and floating-point values in raw form. Reading
+ * fills the vector's leaf arrays and builds its tree directly, so elements
+ * are never boxed either.
+ */
+public class PrimitiveVectorSerializer extends Serializer<Vec> {
+
+    private static final IFn vectorOf = RT.var("clojure.core", "vector-of");
+
+    private static final Keyword[] TYPES = {
+        Keyword.intern("long"),
+        Keyword.intern("double"),
+        Keyword.intern("int"),
+        Keyword.intern("float"),
+        Keyword.intern("short"),
+        Keyword.intern("byte"),
+        Keyword.intern("char"),
+        Keyword.intern("boolean"),
+    };
+
+    private static final int LONG = 0;
+    private static final int DOUBLE = 1;
+    private static final int INT = 2;
+    private static final int FLOAT = 3;
+    private static final int SHORT = 4;
+    private static final int BYTE = 5;
+    private static final int CHAR = 6;
+    private static final int BOOLEAN = 7;
+
+    /**
+     * Empty vector of each primitive type, to take the array manager and
+     * empty root node from.
+     */
+    private static final Vec[] EMPTY = new Vec[TYPES.length];
+
+    static {
+        for (int i = 0; i < TYPES.length; i++) {
+            EMPTY[i] = (Vec)vectorOf.invoke(TYPES[i]);
+        }
+    }
+
+
+    public PrimitiveVectorSerializer() {
+        super(false, true);
+    }
+
+
+    /**
+     * Determine the primitive type code from a backing array.
+     */
+    private static int typeOf(Object array) {
+        Class<?> c = array.getClass();
+        if (c == long[].class) {
+            return LONG;
+        } else if (c == double[].class) {
+            return DOUBLE;
+        } else if (c == int[].class) {
+            return INT;
+        } else if (c == float[].class) {
+            return FLOAT;
+        } else if (c == short[].class) {
+            return SHORT;
+        } else if (c == byte[].class) {
+            return BYTE;
+        } else if (c == char[].class) {
+            return CHAR;
+        } else if (c == boolean[].class) {
+            return BOOLEAN;
+        } else {
+            throw new KryoException("Unsupported primitive vector array type: " + c.getName());
+        }
+    }
+
+
+    @Override
+    public void write(Kryo kryo, Output output, Vec coll) {
+        int type = typeOf(coll.tail);
+        int n = coll.cnt;
+        output.writeByte(type);
+        output.writeVarInt(n, true);
+        for (int i = 0; i < n; i += 32) {
+            Object leaf = coll.arrayFor(i);
+            int end = Math.min(Array.getLength(leaf), n - i);
+            switch (type) {
+                case LONG:
+                    long[] longs = (long[])leaf;
+                    for (int j = 0; j < end; j++) {
+                        output.writeVarLong(longs[j], false);
+                    }
+                    break;
+                case DOUBLE:
+                    double[] doubles = (double[])leaf;
+                    for (int j = 0; j < end; j++) {
+                        output.writeDouble(doubles[j]);
+                    }
+                    break;
+                case INT:
+                    int[] ints = (int[])leaf;
+                    for (int j = 0; j < end; j++) {
+                        output.writeVarInt(ints[j], false);
+                    }
+                    break;
+                case FLOAT:
+                    float[] floats = (float[])leaf;
+                    for (int j = 0; j < end; j++) {
+                        output.writeFloat(floats[j]);
+                    }
+                    break;
+                case SHORT:
+                    short[] shorts = (short[])leaf;
+                    for (int j = 0; j < end; j++) {
+                        output.writeShort(shorts[j]);
+                    }
+                    break;
+                case BYTE:
+                    output.writeBytes((byte[])leaf, 0, end);
+                    break;
+                case CHAR:
+                    char[] chars = (char[])leaf;
+                    for (int j = 0; j < end; j++) {
+                        output.writeChar(chars[j]);
+                    }
+                    break;
+                default:
+                    boolean[] booleans = (boolean[])leaf;
+                    for (int j = 0; j < end; j++) {
+                        output.writeBoolean(booleans[j]);
+                    }
+            }
+        }
+    }
+
+
+    /**
+     * Read `n` values of the given type into a new primitive array.
+     */
+    private static Object readArray(Input input, int type, int n) {
+        switch (type) {
+            case LONG:
+                long[] longs = new long[n];
+                for (int i = 0; i < n; i++) {
+                    longs[i] = input.readVarLong(false);
+                }
+                return longs;
+            case DOUBLE:
+                return input.readDoubles(n);
+            case INT:
+                int[] ints = new int[n];
+                for (int i = 0; i < n; i++) {
+                    ints[i] = input.readVarInt(false);
+                }
+                return ints;
+            case FLOAT:
+                return input.readFloats(n);
+            case SHORT:
+                return input.readShorts(n);
+            case BYTE:
+                return input.readBytes(n);
+            case CHAR:
+                return input.readChars(n);
+            default:
+                boolean[] booleans = new boolean[n];
+                for (int i = 0; i < n; i++) {
+                    booleans[i] = input.readBoolean();
+                }
+                return booleans;
+        }
+    }
+
+
+    /**
+     * Group a level of tree nodes into parent nodes of up to 32 children.
+     */
+    private static Object[] parents(Object[] nodes) {
+        Object[] parents = new Object[(nodes.length + 31) >>> 5];
+        for (int i = 0; i < parents.length; i++) {
+            Object[] children = new Object[32];
+            System.arraycopy(nodes, i << 5, children, 0, Math.min(32, nodes.length - (i << 5)));
+            parents[i] = new VecNode(null, children);
+        }
+        return parents;
+    }
+
+
+    @Override
+    public Vec read(Kryo kryo, Input input, Class<Vec> cls) {
+        int type = input.readByte();
+        if (type < 0 || TYPES.length <= type) {
+            throw new KryoException("Unknown primitive vector type code: " + type);
+        }
+        int n = input.readVarInt(true);
+        Vec empty = EMPTY[type];
+        // Same tail offset as `Vec.tailoff`: the tail holds between 1 and 32
+        // elements, and everything before it lives in full leaves.
+        int tailoff = (n < 32) ? 0 : ((n - 1) >>> 5) << 5;
+        Object[] nodes = new Object[tailoff >>> 5];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new VecNode(null, readArray(input, type, 32));
+        }
+        Object tail = readArray(input, type, n - tailoff);
+        if (nodes.length == 0) {
+            return new Vec(empty.am, n, 5, empty.root, tail, null);
+        }
+        int shift = 5;
+        nodes = parents(nodes);
+        while (nodes.length > 1) {
+            nodes = parents(nodes);
+            shift += 5;
+        }
+        return new Vec(empty.am, n, shift, nodes[0], tail, null);
+    }
+
+}
@@ -0,0 +1,63 @@
+package sparkplug.kryo;
+
+
+import clojure.lang.IPersistentCollection;
+import clojure.lang.ISeq;
+import clojure.lang.PersistentList;
+import clojure.lang.RT;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+
+/**
+ * Kryo serializer for Clojure sequences, which are read back as persistent
+ * lists. Sequences whose elements share a simple type use a packed encoding.
+ */
+public class SequenceSerializer extends Serializer<ISeq> {
+
+    public SequenceSerializer() {
+        super(false, true);
+    }
+
+
+    @Override
+    public void write(Kryo kryo, Output output, ISeq coll) {
+        int n = RT.count(coll);
+        output.writeVarInt(n, true);
+        if (n == 0) {
+            return;
+        }
+        int tag = ElementCodec.UNSET;
+        for (ISeq s = coll.seq(); s != null && tag != ElementCodec.GENERIC; s = s.next()) {
+            tag = ElementCodec.merge(tag, s.first());
+        }
+        tag = ElementCodec.finish(tag);
+        output.writeByte(tag);
+        for (ISeq s = coll.seq(); s != null; s = s.next()) {
+            ElementCodec.write(kryo, output, tag, s.first());
+        }
+    }
+
+
+    @Override
+    public ISeq read(Kryo kryo, Input input, Class<ISeq> type) {
+        int n = input.readVarInt(true);
+        if (n == 0) {
+            return PersistentList.EMPTY;
+        }
+        int tag = input.readByte();
+        Object[] items = new Object[n];
+        for (int i = 0; i < n; i++) {
+            items[i] = ElementCodec.read(kryo, input, tag);
+        }
+        IPersistentCollection result = PersistentList.EMPTY;
+        for (int i = n - 1; i >= 0; i--) {
+            result = result.cons(items[i]);
+        }
+        return (ISeq)result;
+    }
+
+}
@@ -0,0 +1,62 @@
+package sparkplug.kryo;
+
+
+import clojure.lang.IPersistentSet;
+import clojure.lang.ITransientCollection;
+import clojure.lang.PersistentHashSet;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.Iterator;
+
+
+/**
+ * Kryo serializer for unordered Clojure sets, which are read directly into a
+ * transient hash set. Sets whose elements share a simple type use a packed
+ * encoding.
+ */
+public class SetSerializer extends Serializer<IPersistentSet> {
+
+    public SetSerializer() {
+        super(false, true);
+    }
+
+
+    @Override
+    public void write(Kryo kryo, Output output, IPersistentSet coll) {
+        int n = coll.count();
+        output.writeVarInt(n, true);
+        if (n == 0) {
+            return;
+        }
+        int tag = ElementCodec.UNSET;
+        Iterator<?> it = ((Iterable<?>)coll).iterator();
+        while (it.hasNext() && tag != ElementCodec.GENERIC) {
+            tag = ElementCodec.merge(tag, it.next());
+        }
+        tag = ElementCodec.finish(tag);
+        output.writeByte(tag);
+        for (Object el : (Iterable<?>)coll) {
+            ElementCodec.write(kryo, output, tag, el);
+        }
+    }
+
+
+    @Override
+    public IPersistentSet read(Kryo kryo, Input input, Class<IPersistentSet> type) {
+        int n = input.readVarInt(true);
+        if (n == 0) {
+            return PersistentHashSet.EMPTY;
+        }
+        int tag = input.readByte();
+        ITransientCollection result = PersistentHashSet.EMPTY.asTransient();
+        for (int i = 0; i < n; i++) {
+            result = result.conj(ElementCodec.read(kryo, input, tag));
+        }
+        return (IPersistentSet)result.persistent();
+    }
+
+}
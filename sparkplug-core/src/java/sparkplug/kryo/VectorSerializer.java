@@ -0,0 +1,91 @@
+package sparkplug.kryo;
+
+
+import clojure.lang.IPersistentVector;
+import clojure.lang.ITransientCollection;
+import clojure.lang.LazilyPersistentVector;
+import clojure.lang.PersistentVector;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+
+/**
+ * Kryo serializer for Clojure vectors.
+ *
+ * Persistent vectors are written directly from their leaf arrays, using a
+ * packed encoding when all elements share a simple type. Small vectors are
+ * read into an array which the result takes ownership of, while larger ones
+ * are built with a transient.
+ */
+public class VectorSerializer extends Serializer<IPersistentVector> {
+
+    public VectorSerializer() {
+        super(false, true);
+    }
+
+
+    @Override
+    public void write(Kryo kryo, Output output, IPersistentVector coll) {
+        int n = coll.count();
+        output.writeVarInt(n, true);
+        if (n == 0) {
+            return;
+        }
+        if (coll instanceof PersistentVector) {
+            PersistentVector vector = (PersistentVector)coll;
+            int tag = ElementCodec.UNSET;
+            for (int i = 0; i < n && tag != ElementCodec.GENERIC; i += 32) {
+                Object[] leaf = vector.arrayFor(i);
+                int end = Math.min(leaf.length, n - i);
+                for (int j = 0; j < end; j++) {
+                    tag = ElementCodec.merge(tag, leaf[j]);
+                }
+            }
+            tag = ElementCodec.finish(tag);
+            output.writeByte(tag);
+            for (int i = 0; i < n; i += 32) {
+                Object[] leaf = vector.arrayFor(i);
+                int end = Math.min(leaf.length, n - i);
+                for (int j = 0; j < end; j++) {
+                    ElementCodec.write(kryo, output, tag, leaf[j]);
+                }
+            }
+        } else {
+            int tag = ElementCodec.UNSET;
+            for (int i = 0; i < n && tag != ElementCodec.GENERIC; i++) {
+                tag = ElementCodec.merge(tag, coll.nth(i));
+            }
+            tag = ElementCodec.finish(tag);
+            output.writeByte(tag);
+            for (int i = 0; i < n; i++) {
+                ElementCodec.write(kryo, output, tag, coll.nth(i));
+            }
+        }
+    }
+
+
+    @Override
+    public IPersistentVector read(Kryo kryo, Input input, Class<IPersistentVector> type) {
+        int n = input.readVarInt(true);
+        if (n == 0) {
+            return PersistentVector.EMPTY;
+        }
+        int tag = input.readByte();
+        if (n <= 32) {
+            Object[] items = new Object[n];
+            for (int i = 0; i < n; i++) {
+                items[i] = ElementCodec.read(kryo, input, tag);
+            }
+            return LazilyPersistentVector.createOwning(items);
+        }
+        ITransientCollection result = PersistentVector.EMPTY.asTransient();
+        for (int i = 0; i < n; i++) {
+            result = result.conj(ElementCodec.read(kryo, input, tag));
+        }
+        return (IPersistentVector)result.persistent();
+    }
+
+}
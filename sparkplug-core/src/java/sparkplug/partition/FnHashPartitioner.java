@@ -1,7 +1,13 @@
 package sparkplug.partition;
 
-import static clojure.lang.Util.hasheq;
+import clojure.lang.Keyword;
+import clojure.lang.Murmur3;
+import clojure.lang.Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.spark.Partitioner;
+import org.apache.spark.util.LongAccumulator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -12,15 +18,36 @@ import sparkplug.function.Fn1;
  * A Partitioner Similar to Spark's HashPartitioner, which also accepts a key
  * function to translate an Object into a hashable key, and uses Clojure's
  * hash function instead of Object.hashCode().
+ *
+ * If the key function throws, the key is hashed as if it were null; failures
+ * are counted in an optional accumulator, and only a sample of them is
+ * logged.
  */
 public class FnHashPartitioner extends Partitioner {
 
     private static final Logger logger = LoggerFactory.getLogger(FnHashPartitioner.class);
 
+    /**
+     * Number of key function failures in this JVM, used to sample logging.
+     */
+    private static final AtomicLong failures = new AtomicLong();
+
     private final int numPartitions;
     private final Fn1 keyFn;
+    private final LongAccumulator errors;
 
     public FnHashPartitioner(int numPartitions, Fn1 keyFn) {
+        this(numPartitions, keyFn, null);
+    }
+
+    /**
+     * Construct a new partitioner which counts key function failures.
+     *
+     * @param numPartitions number of partitions to hash keys over
+     * @param keyFn function to translate keys before hashing them
+     * @param errors optional registered accumulator to count failures in
+     */
+    public FnHashPartitioner(int numPartitions, Fn1 keyFn, LongAccumulator errors) {
         if (numPartitions <= 0) {
             throw new IllegalArgumentException("Number of partitions must be positive, got " + numPartitions);
         }
@@ -29,6 +56,7 @@ public class FnHashPartitioner extends Partitioner {
         }
         this.numPartitions = numPartitions;
         this.keyFn = keyFn;
+        this.errors = errors;
     }
 
     @Override
@@ -42,11 +70,42 @@ public class FnHashPartitioner extends Partitioner {
         try {
             transformedKey = this.keyFn.call(key);
         } catch (Exception e) {
+            recordFailure(errors, e);
+        }
+        return Math.floorMod(hash(transformedKey), this.numPartitions);
+    }
+
+    /**
+     * Count a key function failure, logging the first failure in this JVM
+     * with its stack trace and then only when the count reaches a power of
+     * two. Shared with `SkewPartitioner`.
+     */
+    static void recordFailure(LongAccumulator errors, Exception e) {
+        if (errors != null) {
+            errors.add(1L);
+        }
+        long n = failures.incrementAndGet();
+        if (n == 1) {
             logger.error("Key function threw an exception, so this key will be hashed as if it were null."
                          + " This is likely to cause skewed partitioning.", e);
+        } else if ((n & (n - 1)) == 0) {
+            logger.error("Key function has thrown {} exceptions in this JVM; most recent: {}", n, e.toString());
         }
+    }
 
-        return Math.floorMod(hasheq(transformedKey), this.numPartitions);
+    /**
+     * Compute the Clojure hash of a value, with direct paths for common key
+     * types. Always equal to `Util.hasheq`.
+     */
+    static int hash(Object key) {
+        if (key instanceof Long) {
+            return Murmur3.hashLong((Long)key);
+        } else if (key instanceof String) {
+            return Murmur3.hashInt(key.hashCode());
+        } else if (key instanceof Keyword) {
+            return ((Keyword)key).hasheq();
+        }
+        return Util.hasheq(key);
     }
 
 }
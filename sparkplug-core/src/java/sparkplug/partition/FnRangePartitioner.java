@@ -0,0 +1,316 @@
+package sparkplug.partition;
+
+import clojure.lang.Murmur3;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.function.Function2;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import scala.Tuple2;
+
+import sparkplug.function.ComparatorFn;
+import sparkplug.function.Fn1;
+import sparkplug.function.SerializableFn;
+
+
+/**
+ * A Partitioner similar to Spark's RangePartitioner, which places keys into
+ * roughly equal ranges using a Clojure comparator instead of a Scala
+ * `Ordering`, and accepts a key function to translate each key before
+ * comparing it.
+ *
+ * Range bounds are chosen on the driver from reservoir samples of each RDD
+ * partition, weighted by the partition sizes. Keys are placed by binary
+ * searching the bounds, so partition `i` holds keys greater than bound
+ * `i - 1` and no greater than bound `i`. Fewer partitions than requested are
+ * produced when the sampled keys have fewer distinct values.
+ *
+ * Two range partitioners are equal if they have equal bounds and their
+ * comparators and key functions are the same functions, compared by class
+ * and closed-over values (see `SerializableFn.sameFunction`), so Spark can
+ * tell when RDDs partitioned by them are already co-partitioned.
+ */
+public class FnRangePartitioner extends Partitioner {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(FnRangePartitioner.class);
+
+    /**
+     * Number of samples to take per requested partition.
+     */
+    static final int SAMPLES_PER_PARTITION = 20;
+
+    /**
+     * Maximum total number of samples to take.
+     */
+    static final int MAX_SAMPLES = 1000000;
+
+    private final Object[] bounds;
+    private final ComparatorFn comparator;
+    private final Fn1 keyFn;
+
+
+    /**
+     * Construct a new range partitioner from precomputed bounds.
+     *
+     * @param bounds sorted array of translated keys bounding each partition
+     * @param comparator comparator for translated keys
+     * @param keyFn optional function to translate keys before comparing them
+     */
+    public FnRangePartitioner(Object[] bounds, ComparatorFn comparator, Fn1 keyFn) {
+        if (bounds == null) {
+            throw new IllegalArgumentException("Range bounds must not be null");
+        }
+        if (comparator == null) {
+            throw new IllegalArgumentException("Comparator must not be null");
+        }
+        this.bounds = bounds.clone();
+        this.comparator = comparator;
+        this.keyFn = keyFn;
+    }
+
+
+    @Override
+    public int numPartitions() {
+        return bounds.length + 1;
+    }
+
+
+    /**
+     * Return the upper bound of each partition but the last.
+     *
+     * @return list of translated keys
+     */
+    public List<Object> bounds() {
+        return Collections.unmodifiableList(Arrays.asList(bounds));
+    }
+
+
+    @Override
+    public int getPartition(Object key) {
+        Object k = translate(keyFn, key);
+        int lo = 0;
+        int hi = bounds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (comparator.compare(bounds[mid], k) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        } else if (!(other instanceof FnRangePartitioner)) {
+            return false;
+        }
+        FnRangePartitioner that = (FnRangePartitioner)other;
+        return Arrays.equals(bounds, that.bounds)
+            && SerializableFn.sameFunction(comparator, that.comparator)
+            && SerializableFn.sameFunction(keyFn, that.keyFn);
+    }
+
+
+    @Override
+    public int hashCode() {
+        int hash = Arrays.hashCode(bounds);
+        hash = 31 * hash + SerializableFn.functionHash(comparator);
+        return 31 * hash + SerializableFn.functionHash(keyFn);
+    }
+
+
+    /**
+     * Return a comparator for untranslated keys which orders them the same
+     * way as the partitions, for sorting records within each partition.
+     *
+     * @return serializable key comparator
+     */
+    public Comparator<Object> keyComparator() {
+        if (keyFn == null) {
+            return comparator;
+        }
+        return new KeyComparator(comparator, keyFn);
+    }
+
+
+    /**
+     * Apply the key function, if any.
+     */
+    private static Object translate(Fn1 keyFn, Object key) {
+        if (keyFn == null) {
+            return key;
+        }
+        try {
+            return keyFn.call(key);
+        } catch (Exception e) {
+            throw new RuntimeException("Key function threw an exception while range partitioning", e);
+        }
+    }
+
+
+    private static final class KeyComparator implements Comparator<Object>, Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ComparatorFn comparator;
+        private final Fn1 keyFn;
+
+        KeyComparator(ComparatorFn comparator, Fn1 keyFn) {
+            this.comparator = comparator;
+            this.keyFn = keyFn;
+        }
+
+        @Override
+        public int compare(Object a, Object b) {
+            return comparator.compare(translate(keyFn, a), translate(keyFn, b));
+        }
+
+    }
+
+
+    // ## Sampling
+
+    /**
+     * Build a range partitioner by sampling the keys of an RDD.
+     *
+     * @param numPartitions requested number of partitions
+     * @param rdd pair RDD to sample keys from
+     * @param comparator comparator for translated keys
+     * @param keyFn optional function to translate keys before comparing them
+     * @param seed random seed for sampling
+     * @return range partitioner with at most `numPartitions` partitions
+     */
+    public static FnRangePartitioner sample(
+            int numPartitions,
+            JavaPairRDD<Object, Object> rdd,
+            ComparatorFn comparator,
+            Fn1 keyFn,
+            long seed) {
+        if (numPartitions <= 0) {
+            throw new IllegalArgumentException("Number of partitions must be positive, got " + numPartitions);
+        }
+        if (numPartitions == 1) {
+            return new FnRangePartitioner(new Object[0], comparator, keyFn);
+        }
+        int sampleSize = Math.min(SAMPLES_PER_PARTITION * numPartitions, MAX_SAMPLES);
+        int perPartition = (int)Math.ceil(3.0 * sampleSize / Math.max(1, rdd.getNumPartitions()));
+        List<Tuple2<Long, List<Object>>> reservoirs =
+            rdd.mapPartitionsWithIndex(new Reservoir(keyFn, perPartition, seed), false).collect();
+
+        List<Object> keys = new ArrayList<Object>();
+        List<Double> weights = new ArrayList<Double>();
+        double total = 0.0;
+        for (Tuple2<Long, List<Object>> reservoir : reservoirs) {
+            List<Object> sampled = reservoir._2();
+            if (sampled.isEmpty()) {
+                continue;
+            }
+            double weight = (double)reservoir._1() / sampled.size();
+            for (Object k : sampled) {
+                keys.add(k);
+                weights.add(weight);
+            }
+            total += reservoir._1();
+        }
+
+        Object[] bounds = determineBounds(keys, weights, total, numPartitions, comparator);
+        logger.debug("Sampled {} keys to choose {} range bounds", keys.size(), bounds.length);
+        return new FnRangePartitioner(bounds, comparator, keyFn);
+    }
+
+
+    /**
+     * Choose up to `numPartitions - 1` distinct bounds from weighted samples
+     * so that each range holds about the same total weight.
+     */
+    private static Object[] determineBounds(
+            List<Object> keys,
+            List<Double> weights,
+            double total,
+            int numPartitions,
+            ComparatorFn comparator) {
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> comparator.compare(keys.get(a), keys.get(b)));
+        double step = total / numPartitions;
+        double cumulative = 0.0;
+        double target = step;
+        List<Object> bounds = new ArrayList<Object>(numPartitions - 1);
+        Object previous = null;
+        for (int i = 0; i < order.length && bounds.size() < numPartitions - 1; i++) {
+            Object k = keys.get(order[i]);
+            cumulative += weights.get(order[i]);
+            if (cumulative >= target) {
+                if (bounds.isEmpty() || comparator.compare(k, previous) > 0) {
+                    bounds.add(k);
+                    previous = k;
+                    target += step;
+                }
+            }
+        }
+        return bounds.toArray();
+    }
+
+
+    /**
+     * Function which reservoir-samples the translated keys of a partition,
+     * returning the partition's size and the sampled keys.
+     */
+    private static final class Reservoir
+        implements Function2<Integer, Iterator<Tuple2<Object, Object>>, Iterator<Tuple2<Long, List<Object>>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Fn1 keyFn;
+        private final int size;
+        private final long seed;
+
+        Reservoir(Fn1 keyFn, int size, long seed) {
+            this.keyFn = keyFn;
+            this.size = size;
+            this.seed = seed;
+        }
+
+        @Override
+        public Iterator<Tuple2<Long, List<Object>>> call(Integer index, Iterator<Tuple2<Object, Object>> records) {
+            Random random = new Random(seed ^ Murmur3.hashInt(index));
+            List<Object> sampled = new ArrayList<Object>(size);
+            long count = 0;
+            while (records.hasNext()) {
+                Object key = records.next()._1();
+                if (count < size) {
+                    sampled.add(translate(keyFn, key));
+                } else {
+                    long r = (long)(random.nextDouble() * (count + 1));
+                    if (r < size) {
+                        sampled.set((int)r, translate(keyFn, key));
+                    }
+                }
+                count++;
+            }
+            return Collections.singletonList(new Tuple2<Long, List<Object>>(count, sampled)).iterator();
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+package sparkplug.partition;
+
+
+import clojure.lang.Util;
+
+import java.io.Serializable;
+
+
+/**
+ * Key paired with a salt value, used to spread the records for a hot key
+ * over several partitions with a `SkewPartitioner`.
+ *
+ * Equality and hashing use the key's `equals` and `hashCode`, like Spark's
+ * own shuffles, so `(long 1)` and `(int 1)` are different keys.
+ */
+public final class SaltedKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Object key;
+    private final int salt;
+
+
+    public SaltedKey(Object key, int salt) {
+        this.key = key;
+        this.salt = salt;
+    }
+
+
+    /**
+     * Return the original key.
+     *
+     * @return unsalted key
+     */
+    public Object key() {
+        return key;
+    }
+
+
+    /**
+     * Return the salt value.
+     *
+     * @return salt, from zero up to the key's fan-out
+     */
+    public int salt() {
+        return salt;
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        } else if (!(other instanceof SaltedKey)) {
+            return false;
+        }
+        SaltedKey that = (SaltedKey)other;
+        return salt == that.salt && Util.equals(key, that.key);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * Util.hash(key) + salt;
+    }
+
+
+    @Override
+    public String toString() {
+        return "SaltedKey[" + key + ", " + salt + "]";
+    }
+
+}
@@ -0,0 +1,357 @@
+package sparkplug.partition;
+
+import static clojure.lang.Util.hasheq;
+
+import clojure.lang.IPersistentMap;
+import clojure.lang.ITransientMap;
+import clojure.lang.PersistentHashMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import org.apache.spark.api.java.function.PairFlatMapFunction;
+import org.apache.spark.api.java.function.PairFunction;
+import org.apache.spark.util.LongAccumulator;
+
+import scala.Tuple2;
+
+import sparkplug.function.Fn1;
+import sparkplug.function.SerializableFn;
+
+
+/**
+ * A Partitioner which hashes keys like `FnHashPartitioner`, but can spread
+ * the records for a few hot keys over several partitions.
+ *
+ * Each hot key has a fan-out, computed from the estimated fraction of records
+ * it holds so that each of its salted keys holds about one partition's worth
+ * of records. Records keyed by a `SaltedKey` are placed `salt` partitions
+ * after the partition their original key hashes to. Other keys, including
+ * unsalted hot keys, are placed exactly as `FnHashPartitioner` would, and
+ * key function failures are counted and logged the same way.
+ *
+ * Two skew partitioners are equal if they have the same number of partitions,
+ * hot key fan-outs, and key function, so Spark can tell when RDDs partitioned
+ * by them are already co-partitioned. Key functions are compared by class and
+ * closed-over values (see `SerializableFn.sameFunction`), so separately
+ * wrapped copies of the same function are equal.
+ *
+ * To join with a skewed RDD, salt its keys with `salter`, replicate the keys
+ * of the other side with `replicator`, join the two on this partitioner, and
+ * remove the salt from the results with `unsalter`.
+ */
+public class SkewPartitioner extends Partitioner {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int numPartitions;
+    private final Fn1 keyFn;
+    private final IPersistentMap fanOuts;
+    private final LongAccumulator errors;
+
+
+    public SkewPartitioner(int numPartitions, Fn1 keyFn, Map<?, ?> shares) {
+        this(numPartitions, keyFn, shares, null);
+    }
+
+
+    /**
+     * Construct a new skew-aware partitioner.
+     *
+     * @param numPartitions number of partitions to distribute keys over
+     * @param keyFn optional function to translate keys before hashing them
+     * @param shares map from hot (translated) keys to the estimated fraction
+     *               of records with that key
+     * @param errors optional registered accumulator to count key function
+     *               failures in
+     */
+    public SkewPartitioner(int numPartitions, Fn1 keyFn, Map<?, ?> shares, LongAccumulator errors) {
+        if (numPartitions <= 0) {
+            throw new IllegalArgumentException("Number of partitions must be positive, got " + numPartitions);
+        }
+        this.numPartitions = numPartitions;
+        this.keyFn = keyFn;
+        ITransientMap fanOuts = PersistentHashMap.EMPTY.asTransient();
+        if (shares != null) {
+            for (Map.Entry<?, ?> entry : shares.entrySet()) {
+                double share = ((Number)entry.getValue()).doubleValue();
+                int fanOut = (int)Math.min(numPartitions, Math.ceil(share * numPartitions));
+                if (fanOut > 1) {
+                    fanOuts = fanOuts.assoc(entry.getKey(), fanOut);
+                }
+            }
+        }
+        this.fanOuts = fanOuts.persistent();
+        this.errors = errors;
+    }
+
+
+    @Override
+    public int numPartitions() {
+        return this.numPartitions;
+    }
+
+
+    /**
+     * Return the number of salted keys the given key is spread over.
+     *
+     * @param key original record key
+     * @return fan-out for the key, which is one unless it is hot
+     */
+    public int fanOut(Object key) {
+        Object fanOut = fanOuts.valAt(translate(key));
+        return (fanOut == null) ? 1 : (Integer)fanOut;
+    }
+
+
+    /**
+     * Return the hot keys and their fan-outs.
+     *
+     * @return map of translated keys to fan-out
+     */
+    public IPersistentMap fanOuts() {
+        return fanOuts;
+    }
+
+
+    @Override
+    public int getPartition(Object key) {
+        if (key instanceof SaltedKey) {
+            SaltedKey salted = (SaltedKey)key;
+            int base = Math.floorMod(hasheq(translate(salted.key())), numPartitions);
+            return Math.floorMod(base + salted.salt(), numPartitions);
+        }
+        return Math.floorMod(hasheq(translate(key)), numPartitions);
+    }
+
+
+    /**
+     * Apply the key function, if any.
+     */
+    private Object translate(Object key) {
+        if (keyFn == null) {
+            return key;
+        }
+        try {
+            return keyFn.call(key);
+        } catch (Exception e) {
+            FnHashPartitioner.recordFailure(errors, e);
+            return null;
+        }
+    }
+
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        } else if (!(other instanceof SkewPartitioner)) {
+            return false;
+        }
+        SkewPartitioner that = (SkewPartitioner)other;
+        return numPartitions == that.numPartitions
+            && SerializableFn.sameFunction(keyFn, that.keyFn)
+            && fanOuts.equals(that.fanOuts);
+    }
+
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * numPartitions + SerializableFn.functionHash(keyFn)) + fanOuts.hashCode();
+    }
+
+
+    // ## Join Functions
+
+    /**
+     * Return a function which salts the keys of hot records, cycling through
+     * the salt values for each key's fan-out.
+     *
+     * @return pair function over key/value tuples
+     */
+    public PairFunction<Tuple2<Object, Object>, Object, Object> salter() {
+        return new Salter(this);
+    }
+
+
+    /**
+     * Return a function which replicates hot records once for each salt
+     * value, so they match every salted record on the other join side.
+     *
+     * @return pair flat-map function over key/value tuples
+     */
+    public PairFlatMapFunction<Tuple2<Object, Object>, Object, Object> replicator() {
+        return new Replicator(this);
+    }
+
+
+    /**
+     * Return a function which removes the salt from record keys.
+     *
+     * @return pair function over key/value tuples
+     */
+    public static PairFunction<Tuple2<Object, Object>, Object, Object> unsalter() {
+        return new Unsalter();
+    }
+
+
+    private static final class Salter implements PairFunction<Tuple2<Object, Object>, Object, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SkewPartitioner partitioner;
+        private int next = 0;
+
+        Salter(SkewPartitioner partitioner) {
+            this.partitioner = partitioner;
+        }
+
+        @Override
+        public Tuple2<Object, Object> call(Tuple2<Object, Object> record) {
+            int fanOut = partitioner.fanOut(record._1());
+            if (fanOut == 1) {
+                return record;
+            }
+            next = (next + 1) & Integer.MAX_VALUE;
+            return new Tuple2<Object, Object>(new SaltedKey(record._1(), next % fanOut), record._2());
+        }
+
+    }
+
+
+    private static final class Replicator implements PairFlatMapFunction<Tuple2<Object, Object>, Object, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SkewPartitioner partitioner;
+
+        Replicator(SkewPartitioner partitioner) {
+            this.partitioner = partitioner;
+        }
+
+        @Override
+        public Iterator<Tuple2<Object, Object>> call(Tuple2<Object, Object> record) {
+            int fanOut = partitioner.fanOut(record._1());
+            List<Tuple2<Object, Object>> results = new ArrayList<Tuple2<Object, Object>>(fanOut);
+            if (fanOut == 1) {
+                results.add(record);
+            } else {
+                for (int salt = 0; salt < fanOut; salt++) {
+                    results.add(new Tuple2<Object, Object>(new SaltedKey(record._1(), salt), record._2()));
+                }
+            }
+            return results.iterator();
+        }
+
+    }
+
+
+    private static final class Unsalter implements PairFunction<Tuple2<Object, Object>, Object, Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Tuple2<Object, Object> call(Tuple2<Object, Object> record) {
+            if (record._1() instanceof SaltedKey) {
+                return new Tuple2<Object, Object>(((SaltedKey)record._1()).key(), record._2());
+            }
+            return record;
+        }
+
+    }
+
+
+    // ## Sampling
+
+    /**
+     * Estimate the fraction of records held by each frequent key in an RDD.
+     * Only the keys and counts of keys holding more than `minShare` of the
+     * sampled records are collected to the driver.
+     *
+     * @param rdd pair RDD to sample
+     * @param keyFn optional function to translate keys before counting them
+     * @param fraction fraction of records to sample
+     * @param seed random seed for sampling
+     * @param minShare minimum fraction of sampled records for a key to be
+     *                 returned
+     * @return map from translated keys to their estimated share of records
+     */
+    public static Map<Object, Double> sampleShares(
+            JavaPairRDD<Object, Object> rdd,
+            Fn1 keyFn,
+            double fraction,
+            long seed,
+            double minShare) {
+        JavaPairRDD<Object, Long> counts =
+            rdd.sample(false, fraction, seed)
+               .mapToPair(new KeyCounter(keyFn))
+               .reduceByKey(new Sum());
+        long total = counts.values().fold(0L, new Sum());
+        Map<Object, Double> shares = new HashMap<Object, Double>();
+        if (total == 0) {
+            return shares;
+        }
+        long minCount = (long)Math.floor(minShare * total);
+        for (Map.Entry<Object, Long> entry : counts.filter(new MinCount(minCount)).collectAsMap().entrySet()) {
+            shares.put(entry.getKey(), entry.getValue().doubleValue() / total);
+        }
+        return shares;
+    }
+
+
+    private static final class KeyCounter implements PairFunction<Tuple2<Object, Object>, Object, Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Fn1 keyFn;
+
+        KeyCounter(Fn1 keyFn) {
+            this.keyFn = keyFn;
+        }
+
+        @Override
+        public Tuple2<Object, Long> call(Tuple2<Object, Object> record) throws Exception {
+            Object key = (keyFn == null) ? record._1() : keyFn.call(record._1());
+            return new Tuple2<Object, Long>(key, 1L);
+        }
+
+    }
+
+
+    private static final class Sum implements Function2<Long, Long, Long> {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public Long call(Long a, Long b) {
+            return a + b;
+        }
+
+    }
+
+
+    private static final class MinCount implements Function<Tuple2<Object, Long>, Boolean> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long minCount;
+
+        MinCount(long minCount) {
+            this.minCount = minCount;
+        }
+
+        @Override
+        public Boolean call(Tuple2<Object, Long> entry) {
+            return entry._2() > minCount;
+        }
+
+    }
+
+}
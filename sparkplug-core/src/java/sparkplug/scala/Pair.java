@@ -0,0 +1,421 @@
+package sparkplug.scala;
+
+
+import clojure.lang.ArityException;
+import clojure.lang.IFn;
+import clojure.lang.IHashEq;
+import clojure.lang.IMapEntry;
+import clojure.lang.IObj;
+import clojure.lang.IPersistentCollection;
+import clojure.lang.IPersistentMap;
+import clojure.lang.IPersistentStack;
+import clojure.lang.IPersistentVector;
+import clojure.lang.ISeq;
+import clojure.lang.MapEntry;
+import clojure.lang.Murmur3;
+import clojure.lang.PersistentVector;
+import clojure.lang.RT;
+import clojure.lang.Util;
+
+import scala.Tuple2;
+
+
+/**
+ * Key/value pair which is both a Scala `Tuple2` and a Clojure map entry.
+ *
+ * Pairs can be handed to Spark wherever a tuple is expected, and used from
+ * Clojure as a two-element vector, including destructuring, `key`/`val`,
+ * invocation with an index, sorting, and equality with other vectors.
+ *
+ * Clojure equality and hashing (`=` and `hash`) follow Clojure's vectors, so
+ * pairs and vectors can be mixed in Clojure sets and maps. Java equality and
+ * hashing are inherited from `Tuple2`, so pairs and plain tuples with the
+ * same elements are interchangeable as keys inside Spark, which partitions
+ * and joins by `hashCode` and `equals`. Operations which build a different
+ * vector, including `with-meta`, return a regular Clojure vector.
+ */
+public class Pair extends Tuple2<Object, Object>
+    implements IMapEntry, IPersistentVector, IHashEq, IObj, IFn, Comparable<Object> {
+
+    private static final long serialVersionUID = 1L;
+
+
+    public Pair(Object key, Object val) {
+        super(key, val);
+    }
+
+
+    /**
+     * Return an equivalent Clojure map entry, to delegate general vector
+     * operations to.
+     */
+    private MapEntry toMapEntry() {
+        return MapEntry.create(_1(), _2());
+    }
+
+
+    // ## IMapEntry
+
+    @Override
+    public Object key() {
+        return _1();
+    }
+
+
+    @Override
+    public Object val() {
+        return _2();
+    }
+
+
+    @Override
+    public Object getKey() {
+        return _1();
+    }
+
+
+    @Override
+    public Object getValue() {
+        return _2();
+    }
+
+
+    @Override
+    public Object setValue(Object value) {
+        throw new UnsupportedOperationException();
+    }
+
+
+    // ## Indexed
+
+    @Override
+    public int count() {
+        return 2;
+    }
+
+
+    @Override
+    public int length() {
+        return 2;
+    }
+
+
+    @Override
+    public Object nth(int i) {
+        if (i == 0) {
+            return _1();
+        } else if (i == 1) {
+            return _2();
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+
+    @Override
+    public Object nth(int i, Object notFound) {
+        if (i == 0) {
+            return _1();
+        } else if (i == 1) {
+            return _2();
+        }
+        return notFound;
+    }
+
+
+    // ## ILookup
+
+    @Override
+    public Object valAt(Object key) {
+        return valAt(key, null);
+    }
+
+
+    @Override
+    public Object valAt(Object key, Object notFound) {
+        if (Util.isInteger(key)) {
+            return nth(((Number)key).intValue(), notFound);
+        }
+        return notFound;
+    }
+
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (Util.isInteger(key)) {
+            int i = ((Number)key).intValue();
+            return i == 0 || i == 1;
+        }
+        return false;
+    }
+
+
+    // ## Vector Operations
+
+    @Override
+    public IMapEntry entryAt(Object key) {
+        return toMapEntry().entryAt(key);
+    }
+
+
+    @Override
+    public IPersistentVector assoc(Object key, Object val) {
+        return toMapEntry().assoc(key, val);
+    }
+
+
+    @Override
+    public IPersistentVector assocN(int i, Object val) {
+        return toMapEntry().assocN(i, val);
+    }
+
+
+    @Override
+    public IPersistentVector cons(Object o) {
+        return toMapEntry().cons(o);
+    }
+
+
+    @Override
+    public IPersistentCollection empty() {
+        return PersistentVector.EMPTY;
+    }
+
+
+    @Override
+    public Object peek() {
+        return _2();
+    }
+
+
+    @Override
+    public IPersistentStack pop() {
+        return toMapEntry().pop();
+    }
+
+
+    @Override
+    public ISeq seq() {
+        return toMapEntry().seq();
+    }
+
+
+    @Override
+    public ISeq rseq() {
+        return toMapEntry().rseq();
+    }
+
+
+    @Override
+    public boolean equiv(Object o) {
+        if (o instanceof IPersistentVector) {
+            IPersistentVector v = (IPersistentVector)o;
+            return v.count() == 2 && Util.equiv(_1(), v.nth(0)) && Util.equiv(_2(), v.nth(1));
+        }
+        return toMapEntry().equiv(o);
+    }
+
+
+    @Override
+    public int hasheq() {
+        int hash = 31 * (31 + Util.hasheq(_1())) + Util.hasheq(_2());
+        return Murmur3.mixCollHash(hash, 2);
+    }
+
+
+    // ## Ordering
+
+    @Override
+    public int compareTo(Object o) {
+        IPersistentVector v = (IPersistentVector)o;
+        if (v.count() != 2) {
+            return (2 < v.count()) ? -1 : 1;
+        }
+        int c = Util.compare(_1(), v.nth(0));
+        return (c != 0) ? c : Util.compare(_2(), v.nth(1));
+    }
+
+
+    // ## IObj
+
+    @Override
+    public IPersistentMap meta() {
+        return null;
+    }
+
+
+    @Override
+    public IObj withMeta(IPersistentMap meta) {
+        if (meta == null) {
+            return this;
+        }
+        return PersistentVector.create(_1(), _2()).withMeta(meta);
+    }
+
+
+    // ## IFn
+
+    /**
+     * Throw an exception for an unsupported number of arguments.
+     */
+    private Object throwArity(int n) {
+        throw new ArityException(n, getClass().getName());
+    }
+
+
+    @Override
+    public Object invoke(Object i) {
+        if (Util.isInteger(i)) {
+            return nth(((Number)i).intValue());
+        }
+        throw new IllegalArgumentException("Key must be integer");
+    }
+
+
+    @Override
+    public Object call() {
+        return invoke();
+    }
+
+
+    @Override
+    public void run() {
+        invoke();
+    }
+
+
+    @Override
+    public Object applyTo(ISeq args) {
+        int n = RT.boundedLength(args, 20);
+        if (n == 1) {
+            return invoke(args.first());
+        }
+        return throwArity(n);
+    }
+
+
+    @Override
+    public Object invoke() {
+        return throwArity(0);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2) {
+        return throwArity(2);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3) {
+        return throwArity(3);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4) {
+        return throwArity(4);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5) {
+        return throwArity(5);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6) {
+        return throwArity(6);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7) {
+        return throwArity(7);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8) {
+        return throwArity(8);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9) {
+        return throwArity(9);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10) {
+        return throwArity(10);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11) {
+        return throwArity(11);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12) {
+        return throwArity(12);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12, Object arg13) {
+        return throwArity(13);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12, Object arg13, Object arg14) {
+        return throwArity(14);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12, Object arg13, Object arg14, Object arg15) {
+        return throwArity(15);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12, Object arg13, Object arg14, Object arg15, Object arg16) {
+        return throwArity(16);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12, Object arg13, Object arg14, Object arg15, Object arg16, Object arg17) {
+        return throwArity(17);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12, Object arg13, Object arg14, Object arg15, Object arg16, Object arg17, Object arg18) {
+        return throwArity(18);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12, Object arg13, Object arg14, Object arg15, Object arg16, Object arg17, Object arg18, Object arg19) {
+        return throwArity(19);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12, Object arg13, Object arg14, Object arg15, Object arg16, Object arg17, Object arg18, Object arg19, Object arg20) {
+        return throwArity(20);
+    }
+
+
+    @Override
+    public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object arg5, Object arg6, Object arg7, Object arg8, Object arg9, Object arg10, Object arg11, Object arg12, Object arg13, Object arg14, Object arg15, Object arg16, Object arg17, Object arg18, Object arg19, Object arg20, Object... args) {
+        return throwArity(20 + args.length);
+    }
+
+}
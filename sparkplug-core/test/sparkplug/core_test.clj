@@ -1,10 +1,21 @@
 (ns sparkplug.core-test
   (:require
+    [clojure.string :as str]
     [clojure.test :refer [deftest is testing use-fixtures]]
+    [sparkplug.accumulator :as acc]
     [sparkplug.config :as conf]
     [sparkplug.context :as context]
     [sparkplug.core :as spark]
-    [sparkplug.rdd :as rdd]))
+    [sparkplug.function :as f]
+    [sparkplug.function.test-fns :as test-fns]
+    [sparkplug.rdd :as rdd]
+    [sparkplug.scala :as scala])
+  (:import
+    scala.Tuple2
+    sparkplug.accumulator.TopK
+    sparkplug.partition.FnRangePartitioner
+    sparkplug.partition.SaltedKey
+    sparkplug.scala.Pair))
 
 
 (def ^:dynamic *sc*
@@ -83,3 +94,427 @@
                (rdd/parallelize-pairs *sc* [[:a :b]])
                (rdd/parallelize-pairs *sc* [[:c :d]])
                (rdd/parallelize-pairs *sc* [[:e :f]])))))))
+
+
+(deftest pair-values
+  (testing "pairs are vectors and map entries"
+    (let [p (scala/pair :a 1)]
+      (is (instance? Tuple2 p))
+      (is (= [:a 1] p))
+      (is (= p [:a 1]))
+      (is (= (hash [:a 1]) (hash p)))
+      (is (= :a (key p) (first p) (nth p 0)))
+      (is (= 1 (val p) (second p) (get p 1)))
+      (is (= "[:a 1]" (pr-str p)))
+      (is (= #{[:a 1]} (conj #{} p [:a 1])))
+      (is (= {:a 1} (conj {} p)))
+      (is (= [:a 1 :b] (conj p :b)))
+      (let [[k v] p]
+        (is (= [:a 1] [k v]))))
+    (let [p (scala/pair :b 2)
+          t (Tuple2. :b 2)]
+      (is (= [[:a 1] [:b 2]] (sort [p (scala/pair :a 1)])))
+      (is (neg? (compare (scala/pair :a 1) [:b 0])))
+      (is (= :b (p 0)))
+      (is (= 2 (p 1)))
+      (is (thrown? IndexOutOfBoundsException (p 2)))
+      (is (= {:x true} (meta (with-meta p {:x true}))))
+      (is (= [:b 2] (with-meta p {:x true})))
+      (is (= (hash [:b 2]) (hash p)))
+      (is (= 1 (count (conj #{} p [:b 2]))))
+      (is (.equals p t))
+      (is (.equals t p))
+      (is (= (.hashCode t) (.hashCode p)))
+      (is (= 1 (count (doto (java.util.HashSet.) (.add p) (.add t)))))
+      (is (.equals p (scala/pair :b 2)))
+      (is (not (.equals p (scala/pair :b 3))))
+      (is (= (.getPartition (org.apache.spark.HashPartitioner. 7) t)
+             (.getPartition (org.apache.spark.HashPartitioner. 7) p))
+          "pairs and tuples should be partitioned alike")))
+  (testing "coercion"
+    (is (instance? Pair (scala/to-pair [:a 1])))
+    (is (instance? Pair (scala/to-pair (first {:a 1}))))
+    (let [t (Tuple2. :a 1)]
+      (is (identical? t (scala/to-pair t))))
+    (is (= [[1 [2 3]] 4]
+           (scala/from-tuples (Tuple2. (Tuple2. 1 (Tuple2. 2 3)) 4)))))
+  (testing "collecting pairs"
+    (let [rdd (spark/map->pairs test-fns/keyed-tuple (rdd/parallelize *sc* [1 2]))
+          [[k v]] (spark/into [] (rdd/parallelize-pairs *sc* [[1 2]]))]
+      (is (= [1 2] [k v]))
+      (is (not-any? #(instance? Pair %) (spark/into [] rdd)))
+      (is (= [[2 1] [3 2]] (sort (spark/into [] (spark/key-by inc (rdd/parallelize *sc* [2 1]))))))
+      (is (instance? Tuple2 (:tuple (val (first (spark/into [] rdd))))))
+      (is (= #{[1 [:a :b]] [2 [:c :d]]}
+             (spark/into #{} (spark/join (rdd/parallelize-pairs *sc* [[1 :a] [2 :c]])
+                                         (rdd/parallelize-pairs *sc* [[1 :b] [2 :d]]))))))))
+
+
+(deftest skew-joins
+  (let [records (concat (map vector (repeat 1000 :hot) (range))
+                        (for [k (range 20), v (range 10)] [k v]))
+        rdd1 (rdd/parallelize-pairs *sc* 4 (shuffle records))
+        rdd2 (rdd/parallelize-pairs *sc* (cons [:hot :h] (map vector (range 15) (range))))
+        skew (spark/key-skew 4 {:fraction 1.0} rdd1)
+        partitioner (rdd/skew-partitioner 4 skew)]
+    (testing "key sampling"
+      (is (= #{:hot} (set (keys skew))))
+      (is (< 0.8 (:hot skew) 0.9))
+      (is (= 4 (.fanOut partitioner :hot)))
+      (is (= 1 (.fanOut partitioner 3))))
+    (testing "salted partitioning"
+      (is (= (.getPartition partitioner :hot)
+             (.getPartition (rdd/hash-partitioner identity 4) :hot)))
+      (is (= 4 (count (set (map #(.getPartition partitioner (SaltedKey. :hot %))
+                                (range 4)))))))
+    (testing "joins"
+      (is (= (frequencies (spark/into [] (spark/join rdd1 rdd2)))
+             (frequencies (spark/into [] (spark/join rdd1 rdd2 partitioner)))))
+      (is (= (frequencies (spark/into [] (spark/left-outer-join rdd1 rdd2)))
+             (frequencies (spark/into [] (spark/left-outer-join rdd1 rdd2 partitioner)))))
+      (is (thrown? IllegalArgumentException
+            (spark/right-outer-join rdd1 rdd2 partitioner)))
+      (is (thrown? IllegalArgumentException
+            (spark/full-outer-join rdd1 rdd2 partitioner))))
+    (testing "equality"
+      (is (= partitioner (rdd/skew-partitioner 4 skew)))
+      (is (= (hash partitioner) (hash (rdd/skew-partitioner 4 skew))))
+      (is (not= partitioner (rdd/skew-partitioner 5 skew)))
+      (is (not= partitioner (rdd/skew-partitioner 4 {})))
+      (is (= (SaltedKey. :hot 1) (SaltedKey. :hot 1)))
+      (is (not= (SaltedKey. :hot 1) (SaltedKey. :hot 2)))
+      (is (not= (SaltedKey. 1 0) (SaltedKey. (int 1) 0))
+          "salted keys should use Java equality like Spark")
+      (let [nth-fn (fn [i] (fn [k] (nth k i)))]
+        (is (= (rdd/skew-partitioner first 4 skew) (rdd/skew-partitioner first 4 skew)))
+        (is (= (rdd/skew-partitioner (nth-fn 0) 4 skew) (rdd/skew-partitioner (nth-fn 0) 4 skew))
+            "key functions should compare by class and closed-over values")
+        (is (= (hash (rdd/skew-partitioner (nth-fn 0) 4 skew))
+               (hash (rdd/skew-partitioner (nth-fn 0) 4 skew))))
+        (is (not= (rdd/skew-partitioner (nth-fn 0) 4 skew) (rdd/skew-partitioner (nth-fn 1) 4 skew)))
+        (is (not= (rdd/skew-partitioner first 4 skew) (rdd/skew-partitioner second 4 skew))))
+      (let [partitioned (rdd/partition-by partitioner rdd2)]
+        (is (identical? (.rdd partitioned)
+                        (.rdd (rdd/partition-by (rdd/skew-partitioner 4 skew) partitioned)))
+            "partitioning by an equal partitioner should not shuffle")))
+    (testing "key function errors"
+      (let [errors (acc/long-accumulator *sc*)
+            partitioner (rdd/skew-partitioner test-fns/checked-key 4 {} {:error-accumulator errors})]
+        (is (= 20 (->> (rdd/parallelize-pairs *sc* (map vector (range -10 10) (range)))
+                       (rdd/partition-by partitioner)
+                       (spark/count))))
+        (is (= 10 (acc/value errors)))
+        (is (= (mod (hash nil) 4) (.getPartition partitioner -5)))))
+    (testing "key function"
+      (let [partitioner (rdd/skew-partitioner str 4 (spark/key-skew 4 {:fraction 1.0, :key-fn str} rdd1))]
+        (is (= 4 (.fanOut partitioner :hot)))
+        (is (= (frequencies (spark/into [] (spark/join rdd1 rdd2)))
+               (frequencies (spark/into [] (spark/join rdd1 rdd2 partitioner)))))))))
+
+
+(deftest broadcast-joins
+  (let [large (rdd/parallelize-pairs *sc* 4 (for [k (range 30), v (range 5)] [k v]))
+        small (rdd/parallelize-pairs *sc* 2 (cons [4 :extra] (map vector (range 0 40 2) (range))))
+        same? (fn [expected actual]
+                (= (frequencies (spark/into [] expected))
+                   (frequencies (spark/into [] actual))))]
+    (testing "map-side joins"
+      (is (same? (spark/join large small)
+                 (spark/broadcast-join large small)))
+      (is (same? (spark/left-outer-join large small)
+                 (spark/broadcast-left-outer-join large small)))
+      (is (same? (spark/right-outer-join small large)
+                 (spark/broadcast-right-outer-join small large))))
+    (testing "partitioning"
+      (let [partitioned (rdd/partition-by (rdd/hash-partitioner 3) large)]
+        (is (= (.partitioner partitioned)
+               (.partitioner (spark/broadcast-join partitioned small))))))
+    (testing "size threshold"
+      (is (= 4 (.getNumPartitions (spark/broadcast-join large small {:partitions 3})))
+          "small side should be broadcast")
+      (let [joined (spark/broadcast-join large small {:max-bytes 100, :partitions 3})]
+        (is (= 3 (.getNumPartitions joined))
+            "large side should fall back to a shuffle")
+        (is (same? (spark/join large small) joined))))))
+
+
+(deftest key-accumulation
+  (let [records (for [k (range 10), v (range 20)] [k v])
+        expected (into {} (map (juxt identity (constantly (vec (range 20))))) (range 10))
+        collect (fn [rdd]
+                  (into {} (map (juxt first (comp vec sort second))) (spark/into [] rdd)))]
+    (is (= expected
+           (->> (rdd/parallelize-pairs *sc* 4 (shuffle records))
+                (spark/accumulate-by-key test-fns/transient-conj test-fns/transient-into)
+                (collect))))
+    (is (= 3 (->> (rdd/parallelize-pairs *sc* 4 (shuffle records))
+                  (spark/accumulate-by-key test-fns/transient-conj test-fns/transient-into 3)
+                  (rdd/num-partitions))))
+    (let [partitioner (rdd/hash-partitioner 3)
+          rdd (rdd/partition-by partitioner (rdd/parallelize-pairs *sc* 4 (shuffle records)))
+          result (spark/accumulate-by-key test-fns/transient-conj test-fns/transient-into partitioner rdd)]
+      (is (= partitioner (rdd/partitioner result)))
+      (is (= expected (collect result))))))
+
+
+(deftest group-reduction
+  (let [records (concat (for [k (range 10), v (range 20)] [k v])
+                        (map vector (repeat 100) (range 100000)))
+        rdd (rdd/parallelize-pairs *sc* 4 (shuffle records))
+        result (spark/reduce-groups-by-key test-fns/sum-group 3 rdd)]
+    (is (= (assoc (zipmap (range 10) (repeat 190)) 100 (reduce + (range 100000)))
+           (into {} (spark/into [] result))))
+    (is (= 3 (rdd/num-partitions result))))
+  (testing "partially consumed groups"
+    (is (= (zipmap (map str (range 10)) (repeat 2))
+           (->> (rdd/parallelize-pairs *sc* 4 (shuffle (for [k (range 10), v (range 5)] [(str k) v])))
+                (spark/reduce-groups-by-key test-fns/first-two 3)
+                (spark/into [])
+                (into {} (map (juxt first (comp count second))))))))
+  (testing "with a range partitioner and comparator"
+    (let [rdd (rdd/parallelize-pairs *sc* 4 (shuffle (for [k (range 10), v (range 5)] [k v])))]
+      (is (= (map vector (range 10) (repeat 10))
+             (spark/into [] (spark/reduce-groups-by-key test-fns/sum-group (rdd/range-partitioner 3 rdd) rdd))))
+      (is (= (map vector (range 10) (repeat 10))
+             (spark/into [] (spark/reduce-groups-by-key test-fns/sum-group test-fns/prim-compare 1 rdd)))))))
+
+
+(deftest partition-streams
+  (let [rdd (rdd/parallelize *sc* 10 (range 1000))]
+    (is (= (range 1000) (into [] (spark/stream rdd))))
+    (is (= (range 1000) (seq (spark/stream 1 rdd))))
+    (is (= (reduce + (range 1000)) (reduce + (spark/stream 3 rdd))))
+    (is (= (range 5) (into [] (take 5) (spark/stream 2 rdd))))
+    (is (empty? (into [] (spark/stream (rdd/empty *sc*)))))
+    (is (= [[1 :a]] (into [] (map scala/from-tuples)
+                          (spark/stream (rdd/parallelize-pairs *sc* [[1 :a]])))))
+    (is (thrown? Exception
+          (into [] (spark/stream (spark/map test-fns/checked-key
+                                            (rdd/parallelize *sc* 4 (range -2 10)))))))
+    (testing "prefetching"
+      (let [^java.util.Iterator elements (.iterator ^Iterable (spark/stream 1 rdd))]
+        (is (= 0 (.next elements)))
+        (is (empty? (.getActiveJobIds (.statusTracker (.sc *sc*))))
+            "a single-partition stream should not fetch while a partition is consumed")
+        (is (= (range 1 1000) (iterator-seq elements)))))
+    (testing "reduce without init"
+      (is (= (reduce + (range 1000)) (reduce + (spark/stream 3 rdd))))
+      (is (= 0 (reduce + (spark/stream (rdd/empty *sc*))))))
+    (testing "cleanup"
+      (let [fetch-threads (fn []
+                            (->> (keys (Thread/getAllStackTraces))
+                                 (filter #(str/starts-with? (.getName ^Thread %) "sparkplug-partition-fetch-"))
+                                 (filter #(.isAlive ^Thread %))
+                                 (count)))
+            settled? (fn []
+                       (loop [i 0]
+                         (cond
+                           (zero? (fetch-threads)) true
+                           (< 50 i) false
+                           :else (do (System/gc)
+                                     (Thread/sleep 100)
+                                     (recur (inc i))))))]
+        (is (= 3 (reduce (fn [_ x] (if (= 3 x) (reduced x) x)) nil (spark/stream 4 rdd))))
+        (is (settled?) "reduced traversal should stop its fetch threads")
+        (let [it (.iterator (spark/stream 4 rdd))]
+          (is (= 0 (.next it))))
+        (is (settled?) "abandoned iterator should stop its fetch threads")))))
+
+
+(deftest hash-partitioning
+  (testing "hashing"
+    (let [partitioner (rdd/hash-partitioner identity 7)]
+      (doseq [k [nil 1 -1 Long/MIN_VALUE "abc" :a ::b 'c [1 2] {:a 1} 1.5 (int 3) 1N]]
+        (is (= (mod (hash k) 7) (.getPartition partitioner k))
+            (str "partition of " (pr-str k))))
+      (let [k [:x 1]]
+        (is (= (.getPartition partitioner k)
+               (.getPartition partitioner k)
+               (.getPartition partitioner [:x 1]))))
+      ;; Hadoop input formats reuse one mutable key instance per record.
+      (let [k (java.util.ArrayList. [0])]
+        (doseq [i (range 20)]
+          (.set k 0 i)
+          (is (= (mod (hash k) 7) (.getPartition partitioner k))
+              "reused key instances should be hashed by their contents")))))
+  (testing "key function errors"
+    (let [errors (acc/long-accumulator *sc*)
+          partitioner (rdd/hash-partitioner test-fns/checked-key 4 {:error-accumulator errors})]
+      (is (= 100 (->> (rdd/parallelize-pairs *sc* (map vector (range -20 80) (range)))
+                      (rdd/partition-by partitioner)
+                      (spark/count))))
+      (is (= 20 (acc/value errors)))
+      (is (= (mod (hash nil) 4) (.getPartition partitioner -5))))))
+
+
+(deftest range-partitioning
+  (let [records (map vector (shuffle (range 1000)) (range))
+        rdd (rdd/parallelize-pairs *sc* 4 records)]
+    (testing "bounds"
+      (let [partitioner (rdd/range-partitioner 5 rdd)
+            bounds (.bounds ^sparkplug.partition.FnRangePartitioner partitioner)]
+        (is (= 5 (.numPartitions partitioner)))
+        (is (= bounds (sort bounds)))
+        (is (zero? (.getPartition partitioner -1)))
+        (is (= 4 (.getPartition partitioner 1000)))
+        (is (= 1 (.getPartition partitioner (inc (first bounds)))))))
+    (testing "total ordering"
+      (let [sorted (->> rdd
+                        (rdd/repartition-and-sort-within-partitions
+                          (rdd/range-partitioner 4 rdd))
+                        (spark/into []))]
+        (is (= (range 1000) (map first sorted)))))
+    (testing "key function and comparator"
+      (let [partitioner (rdd/range-partitioner - compare 4 rdd)
+            sorted (->> rdd
+                        (rdd/repartition-and-sort-within-partitions partitioner)
+                        (spark/into []))]
+        (is (= (reverse (range 1000)) (map first sorted)))
+        (is (= 0 (.getPartition partitioner 999)))))
+    (testing "few distinct keys"
+      (let [rdd (rdd/parallelize-pairs *sc* (map vector (cycle [[:a 1] [:b 2]]) (range 100)))]
+        (is (<= (.numPartitions (rdd/range-partitioner 8 rdd)) 3))))
+    (testing "equality"
+      (let [ranges (fn [bounds cmp key-fn]
+                     (FnRangePartitioner. (object-array bounds)
+                                          (f/comparator-fn cmp)
+                                          (when key-fn (f/fn1 key-fn))))]
+        (is (= (ranges [10 20] compare nil) (ranges [10 20] compare nil)))
+        (is (= (hash (ranges [10 20] compare -)) (hash (ranges [10 20] compare -))))
+        (is (= (ranges [10 20] compare -) (ranges [10 20] compare -)))
+        (is (not= (ranges [10 20] compare nil) (ranges [10 30] compare nil)))
+        (is (not= (ranges [10 20] compare nil) (ranges [10 20] test-fns/prim-compare nil)))
+        (is (not= (ranges [10 20] compare nil) (ranges [10 20] compare -)))
+        (let [partitioned (rdd/partition-by (ranges [300 600] compare nil) rdd)]
+          (is (identical? (.rdd partitioned)
+                          (.rdd (rdd/partition-by (ranges [300 600] compare nil) partitioned)))
+              "equal partitioners should not shuffle again"))))))
+
+
+(deftest broadcast-tables
+  (let [data (into {[:nil] nil, "str" {:a [1 2]}} (map (juxt identity str)) (range 1000))
+        table (spark/broadcast-table *sc* data)]
+    (testing "driver lookups"
+      (is (= 1002 (count @table)))
+      (is (= "17" (get @table 17) (get table 17) (@table 17)))
+      (is (= {:a [1 2]} (get @table "str")))
+      (is (nil? (get @table [:nil] :missing)))
+      (is (= :missing (get @table 1000 :missing)))
+      (is (.containsKey ^sparkplug.broadcast.MappedTable @table [:nil]))
+      (is (identical? @table @table)))
+    (testing "executor lookups"
+      (is (= (concat (map str (range 995 1000)) [:missing :missing])
+             (->> (rdd/parallelize *sc* 3 (range 995 1002))
+                  (spark/map (test-fns/table-lookup table))
+                  (spark/into []))))))
+  (is (zero? (count @(spark/broadcast-table *sc* {})))))
+
+
+(deftest sketch-accumulators
+  (let [distinct-count (acc/distinct-count-accumulator *sc* "distinct")
+        quantiles (acc/quantile-accumulator *sc*)
+        frequencies (acc/frequency-accumulator *sc* nil {:width 512})
+        top (acc/top-k-accumulator *sc* nil {:capacity 20})
+        values (concat (range 10000) (repeat 5000 7) (repeat 2000 42))]
+    (is (acc/empty? distinct-count))
+    (spark/foreach (test-fns/add-to-all [distinct-count quantiles frequencies top])
+                   (rdd/parallelize *sc* 8 (shuffle values)))
+    (is (= "distinct" (acc/name distinct-count)))
+    (is (< 9700 (acc/cardinality distinct-count) 10300))
+    (is (< 1400 (acc/quantile quantiles 0.5) 1600))
+    (is (< 9780 (acc/quantile quantiles 0.99) 9880))
+    (is (<= 5001 (acc/frequency frequencies 7) 5100))
+    (is (<= 1 (acc/frequency frequencies 9999) 100))
+    (is (= [7 42] (map first (acc/top-k top 2))))
+    (is (<= 5001 (second (first (acc/top-k top 2)))))
+    (is (not (identical? (.value quantiles) (.value quantiles)))
+        "queries should not see the accumulator's own sketch")
+    (acc/reset! distinct-count)
+    (is (zero? (acc/cardinality distinct-count)))))
+
+
+(deftest top-k-merging
+  (let [left (doto (TopK. 2)
+               (.add :x) (.add :x) (.add :y) (.add :y))
+        right (doto (TopK. 2)
+                (.add :x) (.add :z) (.add :z) (.add :z))]
+    (.merge right left)
+    (is (= 8 (.total right)))
+    (is (= [:z 5] (first (.top right 2)))
+        "values missing on one side should be credited with its smallest count")
+    (is (= 3 (second (second (.top right 2)))))))
+
+
+(deftest double-rdds
+  (let [rdd (rdd/parallelize *sc* 2 (range 1 11))]
+    (is (= (map test-fns/half (range 1 11))
+           (->> rdd (spark/map->doubles test-fns/half) (spark/into []))))
+    (is (= 55.0 (spark/sum (spark/map->doubles identity rdd))))
+    (is (= {:count 10, :sum 27.5, :min 0.5, :max 5.0, :mean 2.75}
+           (-> (spark/stats (spark/map->doubles test-fns/half rdd))
+               (select-keys [:count :sum :min :max :mean]))))))
+
+
+(deftest partition-transducers
+  (let [rdd (rdd/parallelize *sc* 2 (range 10))]
+    (is (= (into [] (comp (map inc) (filter even?) (mapcat (juxt identity -))) (range 10))
+           (->> rdd
+                (spark/eduction (comp (map inc) (filter even?) (mapcat (juxt identity -))))
+                (spark/into []))))
+    (is (= [0 1 5 6]
+           (->> rdd
+                (spark/eduction (take 2))
+                (spark/into [])))
+        "reduced should stop each partition early")
+    (is (= [[0 1 2] [3 4] [5 6 7] [8 9]]
+           (->> rdd
+                (spark/eduction (partition-all 3))
+                (spark/into [])))
+        "completion should flush state at the end of each partition")))
+
+
+(deftest flat-map-results
+  (let [rdd (rdd/parallelize *sc* 2 (range 4))]
+    (testing "result types"
+      (is (= (range 8)
+             (->> rdd
+                  (spark/mapcat (juxt (partial * 2) (comp inc (partial * 2))))
+                  (spark/into []))))
+      (is (= [1 2 3 4]
+             (->> rdd
+                  (spark/map-partitions test-fns/inc-eduction)
+                  (spark/into []))))
+      (is (= [0 nil 1 nil 2 nil 3 nil]
+             (->> rdd
+                  (spark/map-partitions test-fns/reducible-with-nils)
+                  (spark/into []))))
+      (is (= #{[:a 1] [:b 2]}
+             (->> (rdd/parallelize *sc* [{:a 1} {:b 2}])
+                  (spark/mapcat->pairs identity)
+                  (spark/into #{}))))
+      (is (zero? (->> rdd (spark/mapcat (constantly nil)) (spark/count)))))
+    (testing "errors in reducible results"
+      (is (thrown-with-msg? Exception #"boom"
+            (->> rdd
+                 (spark/map-partitions test-fns/failing-reducible)
+                 (spark/count)))))
+    (testing "reducible results"
+      (is (= [0 0 0]
+             (->> rdd
+                  (spark/map-partitions test-fns/task-partition-reducible)
+                  (spark/take 3)))
+          "reduction should run on the task thread")
+      (is (thrown-with-msg? Exception #"eduction"
+            (->> rdd
+                 (spark/map-partitions test-fns/endless-reducible)
+                 (spark/count)))
+          "oversized reducible results should be rejected")))
+  ;; Each partition produces twice the test JVM's maximum heap, so
+  ;; these only pass if results are streamed rather than realized.
+  (testing "large partitions"
+    (let [n (quot (* 2 (.maxMemory (Runtime/getRuntime))) (* 1024 1024))]
+      (doseq [kind [:lazy-seq :eduction]]
+        (is (= n (->> (rdd/parallelize *sc* 1 [0])
+                      (spark/map-partitions (test-fns/large-results kind n))
+                      (spark/count)))
+            (str "results as a " (name kind)))))))
@@ -8,3 +8,168 @@
     [x]
     (when b
       x)))
+
+
+(deftype BoolBox
+  [value]
+
+  java.io.Serializable)
+
+
+(defn nested-bool-closure
+  "Return a function which closes over a boolean nested two boxes deep."
+  [b]
+  (let [box (BoolBox. (BoolBox. b))]
+    (fn inner
+      [x]
+      (when (.-value ^BoolBox (.-value box))
+        x))))
+
+
+(defn array-bool-closure
+  "Return a function which closes over a boolean nested two arrays deep."
+  [b]
+  (let [arr (object-array [(object-array [b])])]
+    (fn inner
+      [x]
+      (when (aget ^objects (aget arr 0) 0)
+        x))))
+
+
+(defn reducible
+  "Wrap a collection in a value which can only be reduced, not iterated."
+  [coll]
+  (reify clojure.lang.IReduceInit
+
+    (reduce
+      [_ f init]
+      (reduce f init coll))))
+
+
+(defn inc-eduction
+  "Return an eduction of the incremented elements of a partition."
+  [xs]
+  (eduction (map inc) (iterator-seq xs)))
+
+
+(defn reducible-with-nils
+  "Return a reducible of the elements of a partition, each followed by nil."
+  [xs]
+  (reducible (mapcat #(vector % nil) (iterator-seq xs))))
+
+
+(defn task-partition-reducible
+  "Return a reducible which produces the partition id from the task context
+  it is reduced in, three times."
+  [_]
+  (reducible (repeatedly 3 #(.partitionId (org.apache.spark.TaskContext/get)))))
+
+
+(defn endless-reducible
+  "Return a reducible which never stops producing elements."
+  [_]
+  (reducible (range)))
+
+
+(defn failing-reducible
+  "Return a reducible which produces one element and then throws."
+  [_]
+  (reify clojure.lang.IReduceInit
+
+    (reduce
+      [_ f init]
+      (f init 1)
+      (throw (IllegalStateException. "boom")))))
+
+
+(defn- megabyte
+  [_]
+  (byte-array (* 1024 1024)))
+
+
+(defn large-results
+  "Return a partition function which produces `n` one-megabyte arrays as a
+  lazy seq or eduction, depending on `kind`."
+  [kind n]
+  (fn results
+    [_]
+    (case kind
+      :lazy-seq (map megabyte (range n))
+      :eduction (eduction (map megabyte) (range n)))))
+
+
+(defn half
+  "Return half of a number as a primitive double."
+  ^double
+  [x]
+  (/ (double x) 2.0))
+
+
+(defn prim-compare
+  "Compare two values, returning a primitive long."
+  ^long
+  [a b]
+  (compare a b))
+
+
+(defn keyed-tuple
+  "Return a pair keyed by a number, with a map value holding a Scala tuple."
+  [x]
+  [x {:tuple (scala.Tuple2. x (inc x))}])
+
+
+(defn checked-key
+  "Return a key unchanged, throwing an exception if it is negative."
+  [k]
+  (if (neg? k)
+    (throw (IllegalArgumentException. (str "Negative key: " k)))
+    k))
+
+
+(defn transient-conj
+  "Reducing function which collects values in a transient vector."
+  ([] (transient []))
+  ([acc] (persistent! acc))
+  ([acc x] (conj! acc x)))
+
+
+(defn transient-into
+  "Add the elements of a collection to a transient vector."
+  [acc coll]
+  (reduce conj! acc coll))
+
+
+(defn sum-group
+  "Sum the values of a group, checking that they cannot be traversed twice."
+  [_ values]
+  (let [total (reduce + 0 values)]
+    (try
+      (reduce + 0 values)
+      (throw (IllegalStateException. "values were traversed twice"))
+      (catch IllegalStateException ex
+        (if (= "values were traversed twice" (ex-message ex))
+          (throw ex)
+          total)))))
+
+
+(defn first-two
+  "Return the first two values of a group."
+  [_ values]
+  (vec (take 2 values)))
+
+
+(defn table-lookup
+  "Return a function which looks up keys in a broadcast table."
+  [table]
+  (fn lookup
+    [k]
+    (get @table k :missing)))
+
+
+(defn add-to-all
+  "Return a function which adds each value to every accumulator given."
+  [accs]
+  (fn add
+    [x]
+    (doseq [^org.apache.spark.util.AccumulatorV2 acc accs]
+      (.add acc x))))
@@ -1,14 +1,22 @@
 (ns sparkplug.function-test
   (:require
     [clojure.test :refer [are deftest is testing]]
+    [sparkplug.config :as conf]
+    [sparkplug.context :as context]
+    [sparkplug.core :as spark]
     [sparkplug.function :as f]
-    [sparkplug.function.test-fns :as test-fns])
+    [sparkplug.function.test-fns :as test-fns]
+    [sparkplug.rdd :as rdd])
   (:import
     (java.io
       ByteArrayInputStream
       ByteArrayOutputStream
       ObjectInputStream
-      ObjectOutputStream)))
+      ObjectOutputStream)
+    (sparkplug.function
+      FnCache
+      SerializableFn)
+    sparkplug.function.test_fns.BoolBox))
 
 
 (def this-ns
@@ -105,6 +113,37 @@
       (get-closure x))))
 
 
+(defn- serialize
+  [f]
+  (let [baos (ByteArrayOutputStream.)]
+    (with-open [out (ObjectOutputStream. baos)]
+      (.writeObject out f))
+    (.toByteArray baos)))
+
+
+(defn- deserialize
+  [bs]
+  (with-open [in (ObjectInputStream. (ByteArrayInputStream. bs))]
+    (.readObject in)))
+
+
+(deftest namespace-reference-budgets
+  (testing "collection sampling"
+    (binding [f/*collection-sample-size* 10]
+      (is (= #{} (f/namespace-references (vec (range 1000))))
+          "should skip large collections of simple values")
+      (is (= #{this-ns} (f/namespace-references (into [(fn [])] (range 1000))))
+          "should walk collections with complex values in the sample")))
+  (testing "depth limit"
+    (binding [f/*max-walk-depth* 1]
+      (is (= #{this-ns} (f/namespace-references {:key (fn [])})))
+      (is (= #{} (f/namespace-references {:key {:nested (fn [])}})))))
+  (testing "walk stats"
+    (let [before (:calls (f/reference-walk-stats))]
+      (f/namespace-references (fn []))
+      (is (< before (:calls (f/reference-walk-stats)))))))
+
+
 ;; This is a regression test which ensures that decoded functions which close
 ;; over a boolean value are updated to use the canonical `Boolean` static
 ;; instances. Otherwise, users see bugs where a false value evaluates as truthy.
@@ -138,3 +177,139 @@
         (testing "decoded behavior"
           (is (nil? (.call decoded-fn :x))
               "should not return value"))))))
+
+
+(defn- wrapped-fn
+  "Return the Clojure function inside a deserialized function wrapper."
+  [wrapper]
+  (.get (doto (.getDeclaredField SerializableFn "f")
+          (.setAccessible true))
+        wrapper))
+
+
+(deftest cached-deserialization
+  (System/setProperty SerializableFn/CACHE_ENABLED_KEY "true")
+  (try
+    (FnCache/clear)
+    (let [original-fn (f/fn1 (test-fns/bool-closure false))
+          encoded (serialize original-fn)
+          decoded-a (deserialize encoded)
+          decoded-b (deserialize encoded)]
+      (is (= 1 (FnCache/size))
+          "should cache a single function")
+      (is (identical? (wrapped-fn decoded-a) (wrapped-fn decoded-b))
+          "should reuse the cached function")
+      (is (nil? (.call decoded-a :x))
+          "should preserve canonical booleans")
+      (is (nil? (.call decoded-b :x))
+          "cached copy should behave the same"))
+    (let [encoded (serialize (f/fn1 (test-fns/bool-closure true)))
+          cached-id (System/identityHashCode (wrapped-fn (deserialize encoded)))]
+      (System/gc)
+      (is (= cached-id (System/identityHashCode (wrapped-fn (deserialize encoded))))
+          "should keep functions which no task holds while memory is available"))
+    (finally
+      (System/clearProperty SerializableFn/CACHE_ENABLED_KEY)
+      (FnCache/clear))))
+
+
+(defn- closed-over
+  "Return the value a function closes over as `local`."
+  [f local]
+  (.get (doto (.getDeclaredField (class f) local)
+          (.setAccessible true))
+        f))
+
+
+(deftest canonical-boolean-plans
+  (let [decode (fn [f] (wrapped-fn (deserialize (serialize (f/fn1 f)))))]
+    ;; Deftype fields are final, so the inner box checks that final fields
+    ;; are fixed too.
+    (testing "nested final fields"
+      (let [decoded (decode (test-fns/nested-bool-closure false))]
+        (is (nil? (decoded :x)))
+        (is (identical? Boolean/FALSE (.-value ^BoolBox (.-value ^BoolBox (closed-over decoded "box")))))))
+    (testing "arrays"
+      (let [decoded (decode (test-fns/array-bool-closure false))]
+        (is (nil? (decoded :x)))
+        (is (identical? Boolean/FALSE (aget ^objects (aget ^objects (closed-over decoded "arr") 0) 0)))))
+    (testing "plan reuse"
+      (let [plans (-> (Class/forName "sparkplug.function.CanonicalBooleans")
+                      (.getDeclaredField "plans")
+                      (doto (.setAccessible true))
+                      (.get nil))
+            first-fn (decode (test-fns/bool-closure false))
+            plan (.get ^java.lang.ClassValue plans (class first-fn))
+            second-fn (decode (test-fns/bool-closure true))]
+        (is (identical? (class first-fn) (class second-fn)))
+        (is (identical? plan (.get ^java.lang.ClassValue plans (class second-fn)))
+            "second instance of a class should reuse its plan")
+        (is (nil? (first-fn :x)))
+        (is (= :x (second-fn :x)))))))
+
+
+(deftest memoized-namespace-loading
+  (let [encoded (serialize (f/fn1 (test-fns/bool-closure true)))
+        _ (deserialize encoded)
+        before (:acquisitions (f/require-lock-stats))]
+    (dotimes [_ 10]
+      (deserialize encoded))
+    (is (= before (:acquisitions (f/require-lock-stats)))
+        "loaded namespaces should not take the require lock again")))
+
+
+(deftest primitive-wrappers
+  (is (instance? clojure.lang.IFn$OD test-fns/half))
+  (is (instance? clojure.lang.IFn$OOL test-fns/prim-compare))
+  (testing "double-fn"
+    (is (= 1.5 (.call (f/double-fn test-fns/half) 3)))
+    (is (= 3.0 (.call (f/double-fn identity) 3)))
+    (is (= 0.5 (.call (f/double-fn identity) 1/2))))
+  (testing "comparator-fn"
+    (are [cmp] (= [-1 0 1]
+                  (let [c (f/comparator-fn cmp)]
+                    [(.compare c 1 2) (.compare c 2 2) (.compare c 3 2)]))
+      compare
+      test-fns/prim-compare
+      -
+      (comp double -))
+    (is (pos? (.compare (f/comparator-fn -) 4294967296 0))
+        "long results should keep their sign")))
+
+
+(deftest execution-metrics
+  (let [metrics-conf (-> (conf/spark-conf)
+                         (conf/master "local[2]")
+                         (conf/app-name "metrics")
+                         (conf/set-param "spark.ui.enabled" "false")
+                         (conf/set-param SerializableFn/METRICS_ENABLED_KEY "true"))]
+    (context/with-context [sc metrics-conf]
+      (is (= 200 (->> (rdd/parallelize sc 4 (range 100))
+                      (spark/mapcat test-fns/keyed-tuple)
+                      (spark/count))))
+      (is (= 100 (->> (rdd/parallelize-pairs sc (map vector (range -20 80) (range)))
+                      (rdd/partition-by (rdd/hash-partitioner test-fns/checked-key 4))
+                      (spark/count))))
+      (is (= 2475.0 (->> (rdd/parallelize sc 4 (range 100))
+                         (spark/map->doubles test-fns/half)
+                         (spark/sum))))
+      (let [metrics (f/fn-metrics)
+            half (get metrics "sparkplug.function.test-fns/half")
+            keyed (get metrics "sparkplug.function.test-fns/keyed-tuple")
+            checked (get metrics "sparkplug.function.test-fns/checked-key")]
+        (testing "flat-map function"
+          (is (= 100 (:calls keyed)))
+          (is (= 200 (:outputs keyed))
+              "should count each result")
+          (is (zero? (:errors keyed)))
+          (is (<= (:p50-nanos keyed) (:p99-nanos keyed) (:max-nanos keyed) (:total-nanos keyed))))
+        (testing "partitioner key function"
+          (is (= 20 (:errors checked))
+              "should count calls which threw")
+          (is (<= 100 (:calls checked))))
+        (testing "primitive function"
+          (is (= 100 (:calls half)))))
+      (f/reset-fn-metrics!)
+      (is (empty? (f/fn-metrics))))
+    (is (nil? (f/fn-metrics))
+        "stopped context should have no metrics")))
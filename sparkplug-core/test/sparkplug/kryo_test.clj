@@ -1,10 +1,31 @@
 (ns sparkplug.kryo-test
   (:require
-    [clojure.test :refer [deftest is]]
+    [clojure.test :refer [are deftest is testing]]
     [clojure.test.check.clojure-test :refer [defspec]]
     [clojure.test.check.generators :as gen]
     [clojure.test.check.properties :as prop]
-    [sparkplug.kryo :as kryo]))
+    [sparkplug.kryo :as kryo])
+  (:import
+    (clojure.lang
+      PersistentArrayMap
+      PersistentHashMap)
+    (com.esotericsoftware.kryo
+      Kryo
+      KryoException
+      Serializer)
+    (com.esotericsoftware.kryo.io
+      Input
+      Output)
+    (java.io
+      ByteArrayInputStream
+      ByteArrayOutputStream
+      File
+      RandomAccessFile)
+    java.nio.ByteBuffer
+    java.nio.channels.FileChannel$MapMode
+    (sparkplug.kryo
+      IdentSerializer
+      MapSerializer)))
 
 
 (deftest classpath-search
@@ -13,6 +34,25 @@
     (is (<= 2 (count registries)))))
 
 
+(deftest registry-snapshots
+  (let [file (File/createTempFile "sparkplug-registry" ".edn")]
+    (try
+      (let [registries (kryo/write-snapshot! file)]
+        (is (= (kryo/classpath-registries) registries))
+        (is (= registries (kryo/read-snapshot file)))
+        (System/setProperty kryo/snapshot-property (str file))
+        (is (= registries (#'kryo/find-snapshot)))
+        (let [configure! (kryo/load-configuration (kryo/read-snapshot file))
+              kryo (doto (Kryo.) (configure!))]
+          (is (= {:a [1 2]} (->> {:a [1 2]} (kryo/encode kryo) (kryo/decode kryo))))))
+      (spit file "{:registries []}")
+      (is (nil? (#'kryo/find-snapshot))
+          "unreadable snapshots should fall back to scanning")
+      (finally
+        (System/clearProperty kryo/snapshot-property)
+        (.delete file)))))
+
+
 (def kryo (kryo/initialize))
 
 
@@ -21,3 +61,203 @@
    :max-size 20}
   (prop/for-all [x gen/any-equatable]
     (is (= x (->> x (kryo/encode kryo) (kryo/decode kryo))))))
+
+
+(defn- roundtrip
+  [x]
+  (->> x (kryo/encode kryo) (kryo/decode kryo)))
+
+
+(deftest collection-types
+  (is (instance? clojure.lang.MapEntry (roundtrip (first {:a 1}))))
+  (is (= [:a 1] (roundtrip (first {:a 1}))))
+  (is (instance? sparkplug.scala.Pair (roundtrip (sparkplug.scala.Pair. :a 1))))
+  (is (= [:a [1 2]] (roundtrip (sparkplug.scala.Pair. :a [1 2]))))
+  (is (= (vec (range 100)) (roundtrip (vec (range 100)))))
+  (is (= (subvec (vec (range 100)) 10 50) (roundtrip (subvec (vec (range 100)) 10 50))))
+  (is (= (zipmap (range 20) (range 20)) (roundtrip (zipmap (range 20) (range 20)))))
+  (is (seq? (roundtrip (list 1 2 3))))
+  (is (= '(1 2 3) (roundtrip (list 1 2 3))))
+  (is (= () (roundtrip ())))
+  (let [sketch (doto (sparkplug.accumulator.HyperLogLog.)
+                 (.add :a)
+                 (.add "b"))]
+    (is (= sketch (roundtrip sketch))))
+  (let [sketch (doto (sparkplug.accumulator.TopK. 4)
+                 (.add :a)
+                 (.add :a))]
+    (is (= [[:a 2]] (.top ^sparkplug.accumulator.TopK (roundtrip sketch) 2)))))
+
+
+(deftest homogeneous-collections
+  (are [x] (let [y (roundtrip x)]
+             (and (= x y) (= (map class x) (map class y))))
+    [1 2 3 -4 Long/MIN_VALUE Long/MAX_VALUE]
+    [1.5 -2.0 Double/MAX_VALUE]
+    ["a" "b" ""]
+    [:a :b/c :d]
+    (list 1 2 3)
+    #{:x :y :z}
+    [1 2.0 "three" :four nil]
+    [1 (int 2)])
+  (is (= {:a 1, :b 2} (roundtrip {:a 1, :b 2})))
+  (is (= (zipmap (map #(keyword (str "k" %)) (range 50)) (map str (range 50)))
+         (roundtrip (zipmap (map #(keyword (str "k" %)) (range 50)) (map str (range 50))))))
+  (is (< (alength ^bytes (kryo/encode kryo (vec (range 1000))))
+         (alength ^bytes (kryo/encode kryo (vec (interleave (range 500) (map str (range 500)))))))))
+
+
+(deftest primitive-vectors
+  (doseq [t [:long :double :int :float :short :byte :char :boolean]]
+    (let [v (case t
+              :char (apply vector-of t (map char (range 65 140)))
+              :boolean (apply vector-of t (map even? (range 75)))
+              (apply vector-of t (range -5 70)))
+          v' (roundtrip v)]
+      (is (= v v') (str "should round-trip " t " vectors"))
+      (is (= (class v) (class v')))))
+  (is (= (vector-of :long) (roundtrip (vector-of :long))))
+  (testing "tree shapes"
+    (doseq [n [1 31 32 33 64 65 1024 1056 1057 1089 40000]]
+      (let [v (into (vector-of :long) (range n))
+            v' (roundtrip v)]
+        (is (= v v') (str "should round-trip " n " elements"))
+        (is (= (into v (range 1100)) (into v' (range 1100))) (str "should grow from " n " elements"))
+        (is (= (pop v) (pop v')) (str "should pop from " n " elements"))
+        (is (= (assoc v 0 -1) (assoc v' 0 -1)) (str "should assoc into " n " elements"))
+        (is (= (reduce + v) (reduce + v')))))))
+
+
+(deftest ident-encoding
+  (let [kryo (doto (kryo/initialize)
+               (.setReferences false))
+        records (vec (repeat 20 {:customer/id 1, :customer/name "x"}))
+        encoded (kryo/encode kryo records)]
+    (is (= records (kryo/decode kryo encoded)))
+    (is (< (alength encoded)
+           (* 10 (alength (kryo/encode kryo (first records)))))
+        "repeated keywords should be written as back-references"))
+  (let [kryo (doto (kryo/initialize)
+               (.setReferences true))
+        records (vec (repeat 20 {:customer/id 1, 'customer/name "x"}))]
+    (is (= records (kryo/decode kryo (kryo/encode kryo records)))
+        "idents should round-trip using Kryo references instead of the table"))
+  (is (= 'foo.bar/baz (roundtrip 'foo.bar/baz)))
+  (is (= [:a 'a :a 'a] (roundtrip [:a 'a :a 'a])))
+  (IdentSerializer/registerWellKnown :sparkplug.kryo-test/well-known)
+  (is (= :sparkplug.kryo-test/well-known (roundtrip :sparkplug.kryo-test/well-known)))
+  (is (< (alength (kryo/encode kryo :sparkplug.kryo-test/well-known))
+         (alength (kryo/encode kryo :sparkplug.kryo-test/not-well-known)))
+      "well-known keywords should be written as fixed ids"))
+
+
+(deftest map-schemas
+  (let [small-keys [::id ::name ::score]
+        large-keys (mapv #(keyword "sparkplug.kryo-test" (str "field-" %)) (range 12))
+        small-id (MapSerializer/registerSchema (object-array small-keys))
+        record {::id 1, ::name "x", ::score 2.5}
+        plain {::id 1, ::name "x", ::other 2.5}]
+    (is (= small-id (MapSerializer/registerSchema (object-array (reverse small-keys))))
+        "registering the same key set again should return the same id")
+    (MapSerializer/registerSchema (object-array large-keys))
+    (is (= record (roundtrip record)))
+    (is (instance? PersistentArrayMap (roundtrip record)))
+    (is (< (alength (kryo/encode kryo record))
+           (alength (kryo/encode kryo plain)))
+        "maps matching a schema should omit their keys")
+    (are [m] (= m (roundtrip m))
+      plain
+      (dissoc record ::score)
+      (assoc record ::extra true)
+      {::id nil, ::name nil, ::score nil}
+      (zipmap large-keys (range))
+      (zipmap large-keys (map str (range))))
+    (is (instance? PersistentHashMap (roundtrip (zipmap large-keys (range)))))))
+
+
+(deftype Boxed
+  [value])
+
+
+(deftest pooled-codecs
+  (let [data {:a [1 2.5 "three"], :b #{:x :y}}
+        large (vec (range 10000))]
+    (is (= data (kryo/decode (kryo/encode data))))
+    (is (= large (kryo/decode (kryo/encode large)))
+        "encoded values should not be limited by the output buffer size")
+    (is (= data @(future (kryo/decode (kryo/encode data))))))
+  (testing "byte buffers"
+    (doseq [^ByteBuffer buffer [(ByteBuffer/allocate 1024)
+                                (ByteBuffer/allocateDirect 1024)]]
+      (.position buffer 10)
+      (let [n1 (kryo/encode-into! buffer {:a 1})
+            n2 (kryo/encode-into! buffer [1.5 "x"])]
+        (is (= (+ 10 n1 n2) (.position buffer)))
+        (is (thrown? KryoException
+              (kryo/encode-into! buffer (vec (range 1000)))))
+        (is (= (+ 10 n1 n2) (.position buffer))
+            "failed writes should leave the position unchanged")
+        (.flip buffer)
+        (.position buffer 10)
+        (is (= {:a 1} (kryo/decode-from buffer)))
+        (is (= [1.5 "x"] (kryo/decode-from buffer)))
+        (is (zero? (.remaining buffer))))))
+  (testing "mapped buffers"
+    (let [file (File/createTempFile "sparkplug-kryo" ".bin")]
+      (try
+        (with-open [channel (RandomAccessFile. file "rw")]
+          (let [buffer (.map (.getChannel channel) FileChannel$MapMode/READ_WRITE 0 256)]
+            (kryo/encode-into! buffer {:mapped true})
+            (kryo/encode-into! buffer ["second" :value])))
+        (with-open [channel (RandomAccessFile. file "r")]
+          (let [buffer (.map (.getChannel channel) FileChannel$MapMode/READ_ONLY 0 256)]
+            (is (.isReadOnly buffer))
+            (is (= {:mapped true} (kryo/decode-from buffer)))
+            (is (= ["second" :value] (kryo/decode-from buffer))
+                "read-only decodes should advance past exactly one value")))
+        (with-open [channel (RandomAccessFile. file "rw")]
+          (let [buffer (.map (.getChannel channel) FileChannel$MapMode/PRIVATE 0 256)]
+            (is (= {:mapped true} (kryo/decode-from buffer)))))
+        (finally
+          (.delete file)))))
+  (testing "nested calls"
+    (let [k (doto (kryo/initialize)
+              (.register Boxed (proxy [Serializer] []
+                                 (write
+                                   [_ ^Output output ^Boxed boxed]
+                                   (let [^bytes data (kryo/encode (.value boxed))]
+                                     (.writeInt output (alength data))
+                                     (.writeBytes output data)))
+                                 (read
+                                   [_ ^Input input _]
+                                   (Boxed. (kryo/decode (.readBytes input (.readInt input))))))))
+          data [1 (Boxed. {:a [1 2]}) "after"]
+          decoded (kryo/decode k (kryo/encode k data))]
+      (is (= 1 (first decoded)))
+      (is (= {:a [1 2]} (.value ^Boxed (second decoded)))
+          "nested encode and decode should use their own buffers")
+      (is (= "after" (nth decoded 2))
+          "outer buffers should be intact after a nested call"))
+    (let [outer (kryo/pooled-kryo)
+          inner (atom nil)
+          data (lazy-seq
+                 (reset! inner (kryo/pooled-kryo))
+                 [1 2])]
+      (is (= [1 2] (kryo/decode (kryo/encode data))))
+      (is (some? @inner))
+      (is (not (identical? outer @inner))
+          "the pooled Kryo should be checked out during a pooled encode")
+      (is (identical? outer (kryo/pooled-kryo))
+          "the pooled Kryo should be returned after the call")))
+  (testing "streams"
+    (let [values (eduction (map #(hash-map :n %)) (range 100))
+          out (ByteArrayOutputStream.)]
+      (is (= 100 (kryo/write-values! out values)))
+      (is (= (seq values)
+             (kryo/read-values (ByteArrayInputStream. (.toByteArray out)))))
+      (is (empty? (kryo/read-values (ByteArrayInputStream. (byte-array 0)))))
+      (is (= (seq values)
+             (kryo/decode
+               (kryo/encode
+                 (kryo/read-values (ByteArrayInputStream. (.toByteArray out))))))
+          "lazy reads should round-trip through a pooled encode"))))